@@ -7,6 +7,7 @@ import lombok.ToString;
 
 import java.time.Instant;
 
+import org.ledger.blockchain.pow.ParallelMiner;
 import org.ledger.blockchain.pow.PowResult;
 import org.ledger.blockchain.pow.ProofOfWork;
 import org.ledger.blockchain.transaction.MerkleTree;
@@ -65,7 +66,7 @@ public class Block {
     public static Block newBlock(String previousHash, Transaction[] transactions) {
         Block block = new Block("", previousHash, transactions, Instant.now().getEpochSecond(), 0);
         ProofOfWork pow = ProofOfWork.newProofOfWork(block);
-        PowResult powResult = pow.run();
+        PowResult powResult = ParallelMiner.getInstance().mine(pow);
         block.setHash(powResult.getHash());
         block.setNonce(powResult.getNonce());
         return block;
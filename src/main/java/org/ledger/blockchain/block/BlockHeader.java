@@ -0,0 +1,56 @@
+package org.ledger.blockchain.block;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import org.ledger.blockchain.transaction.MerkleTree;
+import org.ledger.blockchain.transaction.TransactionView;
+
+/**
+ * Block without its transactions. Replaces the block in the store once its body is pruned.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BlockHeader {
+
+    private String hash;
+    private String prevBlockHash;
+    /**
+     * Merkle root of the transactions
+     */
+    private byte[] merkleRoot;
+    private long timeStamp;
+    private long nonce;
+
+    /**
+     * @param block
+     * @return
+     */
+    public static BlockHeader newBlockHeader(Block block) {
+        return new BlockHeader(block.getHash(), block.getPrevBlockHash(), block.hashTransaction(),
+                block.getTimeStamp(), block.getNonce());
+    }
+
+    /**
+     * Without decoding the transactions. Blocks of legacy transactions are not encoded as views
+     * and need {@link #newBlockHeader(Block)} on the decoded Kryo record, see
+     * {@link TransactionView#hash()}.
+     *
+     * @param view
+     * @return
+     */
+    public static BlockHeader newBlockHeader(BlockView view) {
+        TransactionView transactionView = new TransactionView();
+        byte[][] txHashes = new byte[view.getTransactionCount()][];
+        for (int i = 0; i < txHashes.length; i++) {
+            txHashes[i] = view.getTransaction(i, transactionView).hash();
+        }
+        return new BlockHeader(view.getHash(), view.getPrevBlockHash(), new MerkleTree(txHashes).getRoot().getHash(),
+                view.getTimeStamp(), view.getNonce());
+    }
+}
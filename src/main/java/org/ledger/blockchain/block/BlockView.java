@@ -0,0 +1,141 @@
+package org.ledger.blockchain.block;
+
+import org.apache.commons.codec.binary.Hex;
+import org.ledger.blockchain.transaction.TransactionView;
+import org.ledger.blockchain.util.BinaryCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Read-only flyweight over a block record in the canonical binary format, see
+ * {@link BinaryCodec}. Fields are read from the bytes by offset, and transactions are read
+ * through a {@link TransactionView}, so walking the chain does not build the block object graph.
+ * Views are reused, so they must not be kept past the next {@code wrap}.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class BlockView {
+
+    private static final int HASH_OFFSET = 0;
+    private static final int PREV_BLOCK_HASH_OFFSET = BinaryCodec.HASH_LENGTH;
+
+    private ByteBuffer buffer;
+    /**
+     * Offset of the block after the record header
+     */
+    private int start;
+    private long timeStamp;
+    private long nonce;
+    private int transactionCount;
+    private int[] transactionOffsets = new int[8];
+
+    /**
+     * @param record block record from the position to the limit of the buffer, not modified
+     * @return this view
+     */
+    public BlockView wrap(ByteBuffer record) {
+        ByteBuffer header = record.duplicate();
+        byte type = BinaryCodec.getRecordType(header);
+        if (type != BinaryCodec.TYPE_BLOCK) {
+            throw new IllegalArgumentException("Fail to wrap block ! record is not a block ! type=" + type);
+        }
+        this.buffer = record;
+        this.start = header.position();
+
+        int cursor = start + 2 * BinaryCodec.HASH_LENGTH;
+        timeStamp = BinaryCodec.getUVarLong(buffer, cursor);
+        cursor += BinaryCodec.sizeOfUVarLong(timeStamp);
+        nonce = BinaryCodec.getUVarLong(buffer, cursor);
+        cursor += BinaryCodec.sizeOfUVarLong(nonce);
+        transactionCount = (int) BinaryCodec.getUVarLong(buffer, cursor);
+        cursor += BinaryCodec.sizeOfUVarLong(transactionCount);
+        if (transactionOffsets.length < transactionCount) {
+            transactionOffsets = Arrays.copyOf(transactionOffsets, Math.max(transactionCount, transactionOffsets.length * 2));
+        }
+        for (int i = 0; i < transactionCount; i++) {
+            long length = BinaryCodec.getUVarLong(buffer, cursor);
+            cursor += BinaryCodec.sizeOfUVarLong(length);
+            transactionOffsets[i] = cursor;
+            cursor += (int) length;
+        }
+        if (cursor > buffer.limit()) {
+            throw new IllegalArgumentException("Fail to wrap block ! transactions exceed the record ! ");
+        }
+        return this;
+    }
+
+    /**
+     * @return
+     */
+    public String getHash() {
+        return hashAt(HASH_OFFSET);
+    }
+
+    /**
+     * @return
+     */
+    public String getPrevBlockHash() {
+        return hashAt(PREV_BLOCK_HASH_OFFSET);
+    }
+
+    /**
+     * Compares in place
+     *
+     * @return whether the previous block hash is the zero hash
+     */
+    public boolean isGenesis() {
+        for (int i = 0; i < BinaryCodec.HASH_LENGTH; i++) {
+            if (buffer.get(start + PREV_BLOCK_HASH_OFFSET + i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return
+     */
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * @return
+     */
+    public long getNonce() {
+        return nonce;
+    }
+
+    /**
+     * @return
+     */
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * @param index
+     * @param view  wrapped around the transaction
+     * @return the view
+     */
+    public TransactionView getTransaction(int index, TransactionView view) {
+        if (index < 0 || index >= transactionCount) {
+            throw new IndexOutOfBoundsException("index=" + index + ", count=" + transactionCount);
+        }
+        return view.wrap(buffer, transactionOffsets[index]);
+    }
+
+    /**
+     * @param offset
+     * @return
+     */
+    private String hashAt(int offset) {
+        byte[] hash = new byte[BinaryCodec.HASH_LENGTH];
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = buffer.get(start + offset + i);
+        }
+        return Hex.encodeHexString(hash);
+    }
+}
@@ -10,13 +10,20 @@ import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPrivateKey;
-import org.ledger.blockchain.store.BlockChainDBUtils;
+import org.ledger.blockchain.store.StorageEngine;
+import org.ledger.blockchain.store.TxLocation;
 import org.ledger.blockchain.transaction.TXInput;
 import org.ledger.blockchain.transaction.TXOutput;
 import org.ledger.blockchain.transaction.Transaction;
+import org.ledger.blockchain.transaction.TransactionVerifier;
+import org.ledger.blockchain.transaction.TransactionView;
+import org.ledger.blockchain.transaction.UTXODelta;
+import org.ledger.blockchain.transaction.UTXOSet;
+import org.ledger.blockchain.util.ByteUtils;
 
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
 *
@@ -29,39 +36,61 @@ import java.util.Map;
 @Slf4j
 public class Blockchain {
 
+    /**
+     * Storage of this chain
+     */
+    private StorageEngine storage;
+
     private String lastBlockHash;
 
     /**
      * 
      *
+     * @param storage
      * @return
      */
-    public static Blockchain initBlockchainFromDB() {
-        String lastBlockHash = BlockChainDBUtils.getInstance().getLastBlockHash();
+    public static Blockchain initBlockchainFromDB(StorageEngine storage) {
+        String lastBlockHash = storage.getLastBlockHash();
         if (lastBlockHash == null) {
             throw new RuntimeException("ERROR: Fail to init blockchain from db. ");
         }
-        return new Blockchain(lastBlockHash);
+        Blockchain blockchain = new Blockchain(storage, lastBlockHash);
+        blockchain.checkAddressIndex();
+        return blockchain;
     }
 
     /**
      * 
      *
+     * @param storage
      * @param address 
      * @return
      */
-    public static Blockchain createBlockchain(String address) {
-        String lastBlockHash = BlockChainDBUtils.getInstance().getLastBlockHash();
+    public static Blockchain createBlockchain(StorageEngine storage, String address) {
+        String lastBlockHash = storage.getLastBlockHash();
         if (StringUtils.isBlank(lastBlockHash)) {
             // 
             String genesisCoinbaseData = "The Times 03/Jan/2009 Chancellor on brink of second bailout for banks";
             Transaction coinbaseTX = Transaction.newCoinbaseTX(address, genesisCoinbaseData);
             Block genesisBlock = Block.newGenesisBlock(coinbaseTX);
-            lastBlockHash = genesisBlock.getHash();
-            BlockChainDBUtils.getInstance().putBlock(genesisBlock);
-            BlockChainDBUtils.getInstance().putLastBlockHash(lastBlockHash);
+            Blockchain blockchain = new Blockchain(storage, ByteUtils.ZERO_HASH);
+            blockchain.addBlock(genesisBlock);
+            return blockchain;
+        }
+        Blockchain blockchain = new Blockchain(storage, lastBlockHash);
+        blockchain.checkAddressIndex();
+        return blockchain;
+    }
+
+    /**
+     * Chains created before the address index existed store compacted chainstate entries, so the
+     * UTXO set is rebuilt once together with the index.
+     */
+    private void checkAddressIndex() {
+        if (StringUtils.isNotBlank(lastBlockHash) && !storage.isAddressIndexComplete()) {
+            log.info("Address index is missing, rebuilding UTXO set ! ");
+            new UTXOSet(this).reIndex();
         }
-        return new Blockchain(lastBlockHash);
     }
 
     /**
@@ -71,13 +100,13 @@ public class Blockchain {
      */
     public Block mineBlock(Transaction[] transactions) {
         // 
-        for (Transaction tx : transactions) {
-            if (!this.verifyTransactions(tx)) {
-                log.error("ERROR: Fail to mine block ! Invalid transaction ! tx=" + tx.toString());
-                throw new RuntimeException("ERROR: Fail to mine block ! Invalid transaction ! ");
-            }
+        TransactionVerifier.Result result = TransactionVerifier.getInstance().verify(transactions, this.findPrevTransactions(transactions));
+        if (!result.isValid()) {
+            log.error("ERROR: Fail to mine block ! Invalid transaction ! result=" + result
+                    + ", tx=" + transactions[result.getTxIndex()].toString());
+            throw new RuntimeException("ERROR: Fail to mine block ! Invalid transaction ! result=" + result);
         }
-        String lastBlockHash = BlockChainDBUtils.getInstance().getLastBlockHash();
+        String lastBlockHash = storage.getLastBlockHash();
         if (lastBlockHash == null) {
             throw new RuntimeException("ERROR: Fail to get last block hash ! ");
         }
@@ -88,46 +117,56 @@ public class Blockchain {
     }
 
     /**
-     * 
+     * Commits the block, the new tip and the UTXO changes of the block atomically
      *
      * @param block
      */
     private void addBlock(Block block) {
-        BlockChainDBUtils.getInstance().putLastBlockHash(block.getHash());
-        BlockChainDBUtils.getInstance().putBlock(block);
+        UTXODelta delta = new UTXOSet(this).computeDelta(block);
+        storage.commitBlock(block, delta);
         this.lastBlockHash = block.getHash();
     }
 
 
+    /**
+     * Disconnects the last block and restores the UTXO set from the block's undo record, e.g. to
+     * switch to another fork
+     *
+     * @param block the last block
+     */
+    public void disconnectBlock(Block block) {
+        storage.disconnectBlock(block);
+        this.lastBlockHash = block.getPrevBlockHash();
+    }
+
     /**
      * 
      */
     public class BlockchainIterator {
 
         private String currentBlockHash;
+        /**
+         * Height of the current block
+         */
+        private long currentHeight;
+        private final BlockView view = new BlockView();
 
-        private BlockchainIterator(String currentBlockHash) {
+        private BlockchainIterator(String currentBlockHash, long currentHeight) {
             this.currentBlockHash = currentBlockHash;
+            this.currentHeight = currentHeight;
         }
 
         /**
-         * 
+         * Stops below the prune height, where block bodies are pruned or, below a UTXO snapshot,
+         * missing, rather than failing to read them
          *
          * @return
          */
         public boolean hashNext() {
-            if (StringUtils.isBlank(currentBlockHash)) {
+            if (StringUtils.isBlank(currentBlockHash) || ByteUtils.ZERO_HASH.equals(currentBlockHash)) {
                 return false;
             }
-            Block lastBlock = BlockChainDBUtils.getInstance().getBlock(currentBlockHash);
-            if (lastBlock == null) {
-                return false;
-            }
-            // 
-            if (lastBlock.getPrevBlockHash().length() == 0) {
-                return true;
-            }
-            return BlockChainDBUtils.getInstance().getBlock(lastBlock.getPrevBlockHash()) != null;
+            return currentHeight >= storage.getPruneHeight();
         }
 
 
@@ -136,50 +175,175 @@ public class Blockchain {
          * @return
          */
         public Block next() {
-            Block currentBlock = BlockChainDBUtils.getInstance().getBlock(currentBlockHash);
-            if (currentBlock != null) {
-                this.currentBlockHash = currentBlock.getPrevBlockHash();
-                return currentBlock;
+            Block currentBlock = storage.getBlock(currentBlockHash);
+            this.currentBlockHash = currentBlock.getPrevBlockHash();
+            this.currentHeight--;
+            return currentBlock;
+        }
+
+        /**
+         * Like {@link #next()}, without decoding the block. The view is reused by the next call.
+         *
+         * @return
+         */
+        public BlockView nextView() {
+            storage.getBlockView(currentBlockHash, view);
+            this.currentBlockHash = view.getPrevBlockHash();
+            this.currentHeight--;
+            return view;
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public BlockchainIterator getBlockchainIterator() {
+        return new BlockchainIterator(lastBlockHash, getBestHeight());
+    }
+
+    /**
+     * Iterates the blocks of a height range through the height index, forward when
+     * {@code fromHeight <= toHeight} and backward otherwise. Both ends are inclusive.
+     */
+    public class BlockRangeIterator implements Iterator<Block> {
+
+        private long nextHeight;
+        private final long toHeight;
+        private final long step;
+
+        private BlockRangeIterator(long fromHeight, long toHeight) {
+            this.nextHeight = fromHeight;
+            this.toHeight = toHeight;
+            this.step = fromHeight <= toHeight ? 1 : -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return step > 0 ? nextHeight <= toHeight : nextHeight >= toHeight;
+        }
+
+        @Override
+        public Block next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
+            Block block = getBlockByHeight(nextHeight);
+            nextHeight += step;
+            return block;
+        }
+    }
+
+    /**
+     * @param fromHeight
+     * @param toHeight
+     * @return
+     */
+    public BlockRangeIterator getBlockRangeIterator(long fromHeight, long toHeight) {
+        long bestHeight = getBestHeight();
+        if (fromHeight < 0 || toHeight < 0 || fromHeight > bestHeight || toHeight > bestHeight) {
+            throw new RuntimeException("ERROR: Block height out of range ! fromHeight=" + fromHeight
+                    + ", toHeight=" + toHeight + ", bestHeight=" + bestHeight);
+        }
+        long pruneHeight = storage.getPruneHeight();
+        if (Math.min(fromHeight, toHeight) < pruneHeight) {
+            throw new RuntimeException("ERROR: Block bodies below height " + pruneHeight + " are pruned ! fromHeight="
+                    + fromHeight + ", toHeight=" + toHeight);
+        }
+        return new BlockRangeIterator(fromHeight, toHeight);
+    }
+
+    /**
+     * Height of the last block
+     *
+     * @return -1 for an empty chain
+     */
+    public long getBestHeight() {
+        return storage.getTipHeight();
+    }
+
+    /**
+     *
+     * @param height
+     * @return
+     */
+    public Block getBlockByHeight(long height) {
+        String missingReason = getMissingBlockReason(height);
+        if (missingReason != null) {
+            throw new RuntimeException(missingReason);
+        }
+        return storage.getBlock(storage.getBlockHash(height));
+    }
+
+    /**
+     * Tells why the body of the block at the height can not be read, without reading it
+     *
+     * @param height
+     * @return null when the block body is stored
+     */
+    public String getMissingBlockReason(long height) {
+        long bestHeight = getBestHeight();
+        if (height < 0 || height > bestHeight) {
+            return "ERROR: Can not find block by height ! height=" + height + ", bestHeight=" + bestHeight;
+        }
+        long pruneHeight = storage.getPruneHeight();
+        if (height >= pruneHeight) {
             return null;
         }
+        if (storage.getBlockHash(height) == null) {
+            return "ERROR: Block was loaded from a UTXO snapshot, only blocks above the snapshot are stored ! height="
+                    + height + ", snapshotHeight=" + (pruneHeight - 1);
+        }
+        return "ERROR: Block body is pruned, only its header is kept ! height=" + height + ", pruneHeight=" + pruneHeight;
     }
 
     /**
+     * Header of the block at the height, also available once the block body is pruned
      *
+     * @param height
      * @return
      */
-    public BlockchainIterator getBlockchainIterator() {
-        return new BlockchainIterator(lastBlockHash);
+    public BlockHeader getBlockHeaderByHeight(long height) {
+        String blockHash = storage.getBlockHash(height);
+        if (blockHash == null) {
+            throw new RuntimeException("ERROR: Can not find block by height ! height=" + height);
+        }
+        return storage.getBlockHeader(blockHash);
     }
 
     /**
-     * unspent transaction outputs
+     * unspent transaction outputs, spent outputs are null
      *
      * @return
      */
     public Map<String, TXOutput[]> findAllUTXOs() {
+        long pruneHeight = storage.getPruneHeight();
+        if (pruneHeight > 0) {
+            throw new RuntimeException("ERROR: Can not find all UTXOs ! block bodies below height " + pruneHeight + " are pruned ! ");
+        }
         Map<String, int[]> allSpentTXOs = this.getAllSpentTXOs();
         Map<String, TXOutput[]> allUTXOs = Maps.newHashMap();
+        TransactionView transaction = new TransactionView();
         // 
         for (BlockchainIterator blockchainIterator = this.getBlockchainIterator(); blockchainIterator.hashNext(); ) {
-            Block block = blockchainIterator.next();
-            for (Transaction transaction : block.getTransactions()) {
+            BlockView block = blockchainIterator.nextView();
+            for (int position = 0; position < block.getTransactionCount(); position++) {
+                block.getTransaction(position, transaction);
 
-                String txId = Hex.encodeHexString(transaction.getTxId());
+                String txId = transaction.getTxIdHex();
 
                 int[] spentOutIndexArray = allSpentTXOs.get(txId);
-                TXOutput[] txOutputs = transaction.getOutputs();
-                for (int outIndex = 0; outIndex < txOutputs.length; outIndex++) {
+                // spent outputs stay as null so the others keep their output index
+                TXOutput[] UTXOArray = new TXOutput[transaction.getOutputCount()];
+                boolean hasUnspent = false;
+                for (int outIndex = 0; outIndex < UTXOArray.length; outIndex++) {
                     if (spentOutIndexArray != null && ArrayUtils.contains(spentOutIndexArray, outIndex)) {
                         continue;
                     }
-                    TXOutput[] UTXOArray = allUTXOs.get(txId);
-                    if (UTXOArray == null) {
-                        UTXOArray = new TXOutput[]{txOutputs[outIndex]};
-                    } else {
-                        UTXOArray = ArrayUtils.add(UTXOArray, txOutputs[outIndex]);
-                    }
+                    UTXOArray[outIndex] = transaction.getOutput(outIndex);
+                    hasUnspent = true;
+                }
+                if (hasUnspent) {
                     allUTXOs.put(txId, UTXOArray);
                 }
             }
@@ -194,21 +358,24 @@ public class Blockchain {
     private Map<String, int[]> getAllSpentTXOs() {
         // TxId ——> spentOutIndex[]，
         Map<String, int[]> spentTXOs = Maps.newHashMap();
+        TransactionView transaction = new TransactionView();
         for (BlockchainIterator blockchainIterator = this.getBlockchainIterator(); blockchainIterator.hashNext(); ) {
-            Block block = blockchainIterator.next();
+            BlockView block = blockchainIterator.nextView();
 
-            for (Transaction transaction : block.getTransactions()) {
+            for (int position = 0; position < block.getTransactionCount(); position++) {
+                block.getTransaction(position, transaction);
                 //  coinbase 
                 if (transaction.isCoinbase()) {
                     continue;
                 }
-                for (TXInput txInput : transaction.getInputs()) {
-                    String inTxId = Hex.encodeHexString(txInput.getTxId());
+                for (int inIndex = 0; inIndex < transaction.getInputCount(); inIndex++) {
+                    String inTxId = Hex.encodeHexString(transaction.getInputTxId(inIndex));
+                    int txOutputIndex = transaction.getInputTxOutputIndex(inIndex);
                     int[] spentOutIndexArray = spentTXOs.get(inTxId);
                     if (spentOutIndexArray == null) {
-                        spentOutIndexArray = new int[]{txInput.getTxOutputIndex()};
+                        spentOutIndexArray = new int[]{txOutputIndex};
                     } else {
-                        spentOutIndexArray = ArrayUtils.add(spentOutIndexArray, txInput.getTxOutputIndex());
+                        spentOutIndexArray = ArrayUtils.add(spentOutIndexArray, txOutputIndex);
                     }
                     spentTXOs.put(inTxId, spentOutIndexArray);
                 }
@@ -219,16 +386,37 @@ public class Blockchain {
 
 
     /**
+     * Uses the transaction index when it is enabled, and scans the chain otherwise or when the
+     * index does not cover the whole chain yet. Once blocks are pruned, transactions of pruned
+     * blocks are rebuilt from their unspent outputs, which is all signing and verification need.
      *
      * @param txId ID
      * @return
      */
     private Transaction findTransaction(byte[] txId) {
+        if (storage.isTxIndexEnabled()) {
+            TxLocation location = storage.getTxLocation(txId);
+            if (location != null) {
+                return storage.getBlock(location.getBlockHash()).getTransactions()[location.getPosition()];
+            }
+        }
+        if (storage.getPruneHeight() > 0) {
+            TXOutput[] utxos = storage.getUTXOs(Hex.encodeHexString(txId));
+            if (utxos == null) {
+                throw new RuntimeException("ERROR: Can not found tx by txId ! its block may be pruned ! ");
+            }
+            return new Transaction(txId, new TXInput[0], utxos, 0, Transaction.CANONICAL_VERSION);
+        }
+        if (storage.isTxIndexEnabled() && storage.isTxIndexComplete()) {
+            throw new RuntimeException("ERROR: Can not found tx by txId ! ");
+        }
+        // only the block holding the transaction is decoded
+        TransactionView tx = new TransactionView();
         for (BlockchainIterator iterator = this.getBlockchainIterator(); iterator.hashNext(); ) {
-            Block block = iterator.next();
-            for (Transaction tx : block.getTransactions()) {
-                if (Arrays.equals(tx.getTxId(), txId)) {
-                    return tx;
+            BlockView block = iterator.nextView();
+            for (int position = 0; position < block.getTransactionCount(); position++) {
+                if (block.getTransaction(position, tx).txIdEquals(txId)) {
+                    return storage.getBlock(block.getHash()).getTransactions()[position];
                 }
             }
         }
@@ -252,23 +440,24 @@ public class Blockchain {
     }
 
     /**
+     * Previous transactions spent by the inputs of the transactions
      *
-     * @param tx
+     * @param transactions
+     * @return by hex txId
      */
-    private boolean verifyTransactions(Transaction tx) {
-        if (tx.isCoinbase()) {
-            return true;
-        }
-        Map<String, Transaction> prevTx = Maps.newHashMap();
-        for (TXInput txInput : tx.getInputs()) {
-            Transaction transaction = this.findTransaction(txInput.getTxId());
-            prevTx.put(Hex.encodeHexString(txInput.getTxId()), transaction);
-        }
-        try {
-            return tx.verify(prevTx);
-        } catch (Exception e) {
-            log.error("Fail to verify transaction ! transaction invalid ! ", e);
-            throw new RuntimeException("Fail to verify transaction ! transaction invalid ! ", e);
+    private Map<String, Transaction> findPrevTransactions(Transaction[] transactions) {
+        Map<String, Transaction> prevTxMap = Maps.newHashMap();
+        for (Transaction tx : transactions) {
+            if (tx.isCoinbase()) {
+                continue;
+            }
+            for (TXInput txInput : tx.getInputs()) {
+                String txId = Hex.encodeHexString(txInput.getTxId());
+                if (!prevTxMap.containsKey(txId)) {
+                    prevTxMap.put(txId, this.findTransaction(txInput.getTxId()));
+                }
+            }
         }
+        return prevTxMap;
     }
-}
\ No newline at end of file
+}
@@ -8,7 +8,7 @@ import org.apache.commons.lang3.math.NumberUtils;
 import org.ledger.blockchain.block.Block;
 import org.ledger.blockchain.block.Blockchain;
 import org.ledger.blockchain.pow.ProofOfWork;
-import org.ledger.blockchain.store.BlockChainDBUtils;
+import org.ledger.blockchain.store.StorageEngine;
 import org.ledger.blockchain.transaction.TXOutput;
 import org.ledger.blockchain.transaction.Transaction;
 import org.ledger.blockchain.transaction.UTXOSet;
@@ -16,6 +16,7 @@ import org.ledger.blockchain.util.Base58Check;
 import org.ledger.blockchain.wallet.Wallet;
 import org.ledger.blockchain.wallet.WalletUtils;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Set;
 
@@ -29,6 +30,7 @@ public class CLI {
 
     private String[] args;
     private Options options = new Options();
+    private StorageEngine storage;
 
     public CLI(String[] args) {
         this.args = args;
@@ -40,11 +42,15 @@ public class CLI {
         Option sendFrom = Option.builder("from").hasArg(true).desc("Source wallet address").build();
         Option sendTo = Option.builder("to").hasArg(true).desc("Destination wallet address").build();
         Option sendAmount = Option.builder("amount").hasArg(true).desc("Amount to send").build();
+        Option height = Option.builder("height").hasArg(true).desc("Block height").build();
+        Option file = Option.builder("file").hasArg(true).desc("Snapshot file").build();
 
         options.addOption(address);
         options.addOption(sendFrom);
         options.addOption(sendTo);
         options.addOption(sendAmount);
+        options.addOption(height);
+        options.addOption(file);
     }
 
     /**
@@ -55,6 +61,7 @@ public class CLI {
         try {
             CommandLineParser parser = new DefaultParser();
             CommandLine cmd = parser.parse(options, args);
+            storage = StorageEngine.open();
             switch (args[0]) {
                 case "createblockchain":
                     String createblockchainAddress = cmd.getOptionValue("address");
@@ -90,6 +97,30 @@ public class CLI {
                 case "printchain":
                     this.printChain();
                     break;
+                case "printblock":
+                    String printBlockHeight = cmd.getOptionValue("height");
+                    if (!NumberUtils.isDigits(printBlockHeight)) {
+                        help();
+                    }
+                    this.printBlock(Long.valueOf(printBlockHeight));
+                    break;
+                case "reindextx":
+                    this.reIndexTransactions();
+                    break;
+                case "dumputxo":
+                    String dumpFile = cmd.getOptionValue("file");
+                    if (StringUtils.isBlank(dumpFile)) {
+                        help();
+                    }
+                    this.dumpUTXOs(dumpFile);
+                    break;
+                case "loadutxo":
+                    String loadFile = cmd.getOptionValue("file");
+                    if (StringUtils.isBlank(loadFile)) {
+                        help();
+                    }
+                    this.loadUTXOs(loadFile);
+                    break;
                 case "h":
                     this.help();
                     break;
@@ -99,7 +130,9 @@ public class CLI {
         } catch (Exception e) {
             log.error("Fail to parse cli command ! ", e);
         } finally {
-            BlockChainDBUtils.getInstance().closeDB();
+            if (storage != null) {
+                storage.close();
+            }
         }
     }
 
@@ -119,12 +152,42 @@ public class CLI {
      * @param address
      */
     private void createBlockchain(String address) {
-        Blockchain blockchain = Blockchain.createBlockchain(address);
+        Blockchain blockchain = Blockchain.createBlockchain(storage, address);
         UTXOSet utxoSet = new UTXOSet(blockchain);
         utxoSet.reIndex();
         log.info("Done ! ");
     }
 
+    /**
+     * Rebuild the transaction index
+     */
+    private void reIndexTransactions() {
+        Blockchain.initBlockchainFromDB(storage);
+        storage.rebuildTxIndex();
+        log.info("Done ! ");
+    }
+
+    /**
+     * Write the UTXO set at the current tip to a snapshot file
+     *
+     * @param file
+     */
+    private void dumpUTXOs(String file) {
+        Blockchain.initBlockchainFromDB(storage);
+        long records = storage.exportUTXOSnapshot(new File(file));
+        log.info("Done ! transactions={}", records);
+    }
+
+    /**
+     * Load a UTXO snapshot file into an empty node
+     *
+     * @param file
+     */
+    private void loadUTXOs(String file) {
+        long records = storage.importUTXOSnapshot(new File(file));
+        log.info("Done ! transactions={}, height={}", records, storage.getTipHeight());
+    }
+
     /**
      * 
      *
@@ -167,7 +230,7 @@ public class CLI {
         byte[] versionedPayload = Base58Check.base58ToBytes(address);
         byte[] pubKeyHash = Arrays.copyOfRange(versionedPayload, 1, versionedPayload.length);
 
-        Blockchain blockchain = Blockchain.createBlockchain(address);
+        Blockchain blockchain = Blockchain.createBlockchain(storage, address);
         UTXOSet utxoSet = new UTXOSet(blockchain);
 
         TXOutput[] txOutputs = utxoSet.findUTXOs(pubKeyHash);
@@ -207,13 +270,12 @@ public class CLI {
             log.error("ERROR: amount invalid ! amount=" + amount);
             throw new RuntimeException("ERROR: amount invalid ! amount=" + amount);
         }
-        Blockchain blockchain = Blockchain.createBlockchain(from);
+        Blockchain blockchain = Blockchain.createBlockchain(storage, from);
         // 
         Transaction transaction = Transaction.newUTXOTransaction(from, to, amount, blockchain);
       
         Transaction rewardTx = Transaction.newCoinbaseTX(from, "");
-        Block newBlock = blockchain.mineBlock(new Transaction[]{transaction, rewardTx});
-        new UTXOSet(blockchain).update(newBlock);
+        blockchain.mineBlock(new Transaction[]{transaction, rewardTx});
         log.info("Success!");
     }
 
@@ -227,6 +289,10 @@ public class CLI {
         System.out.println("  getbalance -address ADDRESS - Get balance of ADDRESS");
         System.out.println("  createblockchain -address ADDRESS - Create a blockchain and send genesis block reward to ADDRESS");
         System.out.println("  printchain - Print all the blocks of the blockchain");
+        System.out.println("  printblock -height HEIGHT - Print the block at HEIGHT");
+        System.out.println("  reindextx - Rebuild the transaction index");
+        System.out.println("  dumputxo -file FILE - Write the UTXO set at the tip to a snapshot FILE");
+        System.out.println("  loadutxo -file FILE - Load a UTXO snapshot FILE into an empty node");
         System.out.println("  send -from FROM -to TO -amount AMOUNT - Send AMOUNT of coins from FROM address to TO");
         System.exit(0);
     }
@@ -235,14 +301,47 @@ public class CLI {
      * 
      */
     private void printChain() {
-        Blockchain blockchain = Blockchain.initBlockchainFromDB();
-        for (Blockchain.BlockchainIterator iterator = blockchain.getBlockchainIterator(); iterator.hashNext(); ) {
-            Block block = iterator.next();
-            if (block != null) {
+        Blockchain blockchain = Blockchain.initBlockchainFromDB(storage);
+        long pruneHeight = storage.getPruneHeight();
+        if (pruneHeight == 0) {
+            for (Blockchain.BlockchainIterator iterator = blockchain.getBlockchainIterator(); iterator.hashNext(); ) {
+                Block block = iterator.next();
+                if (block != null) {
+                    boolean validate = ProofOfWork.newProofOfWork(block).validate();
+                    log.info(block.toString() + ", validate = " + validate);
+                }
+            }
+            return;
+        }
+        // blocks below the prune height only have their headers left
+        for (long height = blockchain.getBestHeight(); height >= 0; height--) {
+            if (height >= pruneHeight) {
+                Block block = blockchain.getBlockByHeight(height);
                 boolean validate = ProofOfWork.newProofOfWork(block).validate();
                 log.info(block.toString() + ", validate = " + validate);
+            } else if (storage.getBlockHash(height) != null) {
+                log.info(blockchain.getBlockHeaderByHeight(height).toString() + ", pruned");
+            } else {
+                log.info("Blocks up to height " + height + " were loaded from a UTXO snapshot");
+                break;
             }
         }
     }
 
+    /**
+     *
+     * @param height
+     */
+    private void printBlock(long height) {
+        Blockchain blockchain = Blockchain.initBlockchainFromDB(storage);
+        String missingReason = blockchain.getMissingBlockReason(height);
+        if (missingReason != null) {
+            log.error(missingReason);
+            return;
+        }
+        Block block = blockchain.getBlockByHeight(height);
+        boolean validate = ProofOfWork.newProofOfWork(block).validate();
+        log.info("height = " + height + ", " + block.toString() + ", validate = " + validate);
+    }
+
 }
@@ -0,0 +1,213 @@
+package org.ledger.blockchain.pow;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.commons.codec.binary.Hex;
+import org.ledger.blockchain.util.ConfigUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Searches the nonce space of a proof of work on several threads. Worker {@code i} of {@code n}
+ * tries the nonces {@code i, i + n, i + 2n, ...}; all workers stop as soon as one of them finds a
+ * hash below the target, or when the job is cancelled.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Slf4j
+public class ParallelMiner {
+
+    /**
+     * Nonces a worker tries between two updates of the hash counter
+     */
+    private static final int COUNT_INTERVAL = 1 << 12;
+
+    private volatile static ParallelMiner instance;
+
+    /**
+     * Miner with {@code mine.threads} threads, 0 for one per core
+     *
+     * @return
+     */
+    public static ParallelMiner getInstance() {
+        if (instance == null) {
+            synchronized (ParallelMiner.class) {
+                if (instance == null) {
+                    int threads = ConfigUtils.getInstance().getInt("mine.threads");
+                    instance = new ParallelMiner(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private final int threads;
+    private final ExecutorService executor;
+
+    /**
+     * @param threads
+     */
+    public ParallelMiner(int threads) {
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("miner-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Starts searching, see {@link Job#await()} for the result
+     *
+     * @param pow
+     * @return
+     */
+    public Job start(ProofOfWork pow) {
+        Job job = new Job(threads);
+        for (int i = 0; i < threads; i++) {
+            int worker = i;
+            executor.execute(() -> job.search(pow, worker));
+        }
+        return job;
+    }
+
+    /**
+     * Mines the proof of work on all threads
+     *
+     * @param pow
+     * @return
+     */
+    public PowResult mine(ProofOfWork pow) {
+        Job job = start(pow);
+        PowResult result = job.await();
+        if (result == null) {
+            if (job.getError() != null) {
+                throw new RuntimeException("Fail to mine block ! ", job.getError());
+            }
+            throw new RuntimeException("Fail to mine block ! mining is interrupted ! ");
+        }
+        return result;
+    }
+
+    /**
+     * One search of a nonce
+     */
+    public static class Job {
+
+        private final int workers;
+        private final long startTime = System.nanoTime();
+        private final CountDownLatch finished;
+        private final AtomicReference<PowResult> result = new AtomicReference<>();
+        /**
+         * First failure of a worker
+         */
+        private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        private final LongAdder hashes = new LongAdder();
+        private volatile boolean stopped;
+        private volatile long endTime;
+
+        private Job(int workers) {
+            this.workers = workers;
+            this.finished = new CountDownLatch(workers);
+        }
+
+        /**
+         * @param pow
+         * @param worker
+         */
+        private void search(ProofOfWork pow, int worker) {
+            long count = 0;
+            try {
+                ProofOfWork.NonceHasher hasher = pow.newNonceHasher();
+                for (long nonce = worker; nonce >= 0 && !stopped; nonce += workers) {
+                    byte[] hash = hasher.hash(nonce);
+                    if (++count == COUNT_INTERVAL) {
+                        hashes.add(count);
+                        count = 0;
+                    }
+                    if (hasher.isBelowTarget(hash)) {
+                        if (result.compareAndSet(null, new PowResult(nonce, Hex.encodeHexString(hash)))) {
+                            stopped = true;
+                        }
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.error("Fail to mine ! worker=" + worker, e);
+                error.compareAndSet(null, e);
+                stopped = true;
+            } finally {
+                hashes.add(count);
+                finished.countDown();
+                if (finished.getCount() == 0) {
+                    endTime = System.nanoTime();
+                }
+            }
+        }
+
+        /**
+         * Waits for the workers to stop
+         *
+         * @return null when cancelled, or when the search failed or was exhausted
+         */
+        public PowResult await() {
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            PowResult powResult = result.get();
+            if (powResult != null) {
+                log.info("Elapsed Time: {} seconds, hash rate: {} H/s", getElapsedMillis() / 1000f, getHashRate());
+                log.info("correct hash Hex: {} ", powResult.getHash());
+            }
+            return powResult;
+        }
+
+        /**
+         * Stops the workers, for example when a new tip arrives
+         */
+        public void cancel() {
+            stopped = true;
+        }
+
+        public boolean isCancelled() {
+            return stopped && result.get() == null && error.get() == null;
+        }
+
+        /**
+         * @return the first failure of a worker, null if none failed
+         */
+        public RuntimeException getError() {
+            return error.get();
+        }
+
+        /**
+         * @return hashes computed so far by all workers
+         */
+        public long getHashes() {
+            return hashes.sum();
+        }
+
+        /**
+         * @return combined hashes per second of all workers
+         */
+        public long getHashRate() {
+            long elapsedMillis = getElapsedMillis();
+            return elapsedMillis == 0 ? 0 : getHashes() * 1000 / elapsedMillis;
+        }
+
+        /**
+         * @return
+         */
+        private long getElapsedMillis() {
+            long end = endTime == 0 ? System.nanoTime() : endTime;
+            return (end - startTime) / 1_000_000;
+        }
+    }
+}
@@ -7,6 +7,8 @@ import lombok.extern.slf4j.Slf4j;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.util.BigIntegers;
 import org.ledger.blockchain.block.Block;
 import org.ledger.blockchain.util.ByteUtils;
 
@@ -51,36 +53,21 @@ public class ProofOfWork {
     }
 
     /**
-     * Hash
      *
      * @return
      */
-    public PowResult run() {
-        long nonce = 0;
-        String shaHex = "";
-        long startTime = System.currentTimeMillis();
-        while (nonce < Long.MAX_VALUE) {
-            log.info("POW running, nonce=" + nonce);
-            byte[] data = this.prepareData(nonce);
-            shaHex = DigestUtils.sha256Hex(data);
-            if (new BigInteger(shaHex, 16).compareTo(this.target) == -1) {
-                log.info("Elapsed Time: {} seconds \n", new Object[]{(float) (System.currentTimeMillis() - startTime) / 1000});
-                log.info("correct hash Hex: {} \n", new Object[]{shaHex});
-                break;
-            } else {
-                nonce++;
-            }
-        }
-        return new PowResult(nonce, shaHex);
+    public boolean validate() {
+        byte[] data = this.prepareData(this.getBlock().getNonce());
+        return new BigInteger(DigestUtils.sha256Hex(data), 16).compareTo(this.target) == -1;
     }
 
     /**
+     * Hasher for one mining thread
      *
      * @return
      */
-    public boolean validate() {
-        byte[] data = this.prepareData(this.getBlock().getNonce());
-        return new BigInteger(DigestUtils.sha256Hex(data), 16).compareTo(this.target) == -1;
+    public NonceHasher newNonceHasher() {
+        return new NonceHasher(this.prepareData(), this.target);
     }
 
     /**
@@ -88,6 +75,13 @@ public class ProofOfWork {
      * @return
      */
     private byte[] prepareData(long nonce) {
+        return ByteUtils.merge(this.prepareData(), ByteUtils.toBytes(nonce));
+    }
+
+    /**
+     * @return the data before the nonce, which does not change while mining
+     */
+    private byte[] prepareData() {
         byte[] prevBlockHashBytes = {};
         if (StringUtils.isNoneBlank(this.getBlock().getPrevBlockHash())) {
             prevBlockHashBytes = new BigInteger(this.getBlock().getPrevBlockHash(), 16).toByteArray();
@@ -97,9 +91,68 @@ public class ProofOfWork {
                 prevBlockHashBytes,
                 this.getBlock().hashTransaction(),
                 ByteUtils.toBytes(this.getBlock().getTimeStamp()),
-                ByteUtils.toBytes(TARGET_BITS),
-                ByteUtils.toBytes(nonce)
+                ByteUtils.toBytes(TARGET_BITS)
         );
     }
 
+    /**
+     * Hashes the data of {@link #prepareData(long)} for a nonce without allocating: the digest
+     * state after the fixed data is kept, and each nonce restores it and hashes the 8 nonce bytes
+     * only. Hashes are compared to the target as big-endian bytes. Not thread-safe, and the hash
+     * array is reused by the next call.
+     */
+    public static class NonceHasher {
+
+        private final SHA256Digest prefixState = new SHA256Digest();
+        private final SHA256Digest digest = new SHA256Digest();
+        private final byte[] nonceBytes = new byte[Long.BYTES];
+        private final byte[] hash = new byte[32];
+        /**
+         * Big-endian target, null when every hash is below it
+         */
+        private final byte[] target;
+
+        /**
+         * @param prefix
+         * @param target
+         */
+        private NonceHasher(byte[] prefix, BigInteger target) {
+            prefixState.update(prefix, 0, prefix.length);
+            this.target = target.bitLength() > 256 ? null : BigIntegers.asUnsignedByteArray(32, target);
+        }
+
+        /**
+         * @param nonce
+         * @return
+         */
+        public byte[] hash(long nonce) {
+            for (int i = Long.BYTES - 1; i >= 0; i--) {
+                nonceBytes[i] = (byte) nonce;
+                nonce >>>= 8;
+            }
+            digest.reset(prefixState);
+            digest.update(nonceBytes, 0, nonceBytes.length);
+            digest.doFinal(hash, 0);
+            return hash;
+        }
+
+        /**
+         * @param hash
+         * @return
+         */
+        public boolean isBelowTarget(byte[] hash) {
+            if (target == null) {
+                return true;
+            }
+            for (int i = 0; i < hash.length; i++) {
+                int a = hash[i] & 0xFF;
+                int b = target[i] & 0xFF;
+                if (a != b) {
+                    return a < b;
+                }
+            }
+            return false;
+        }
+    }
+
 }
@@ -0,0 +1,72 @@
+package org.ledger.blockchain.store;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.AllArgsConstructor;
+
+import org.ledger.blockchain.block.Block;
+
+/**
+ * LRU cache of deserialized blocks keyed by block hash, bounded by the serialized size of the
+ * cached blocks. Cached blocks are shared, so callers must not modify them.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class BlockCache {
+
+    private final Cache<String, SizedBlock> cache;
+
+    /**
+     * @param maxBytes upper bound of the serialized size of the cached blocks
+     */
+    public BlockCache(long maxBytes) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String blockHash, SizedBlock sizedBlock) -> sizedBlock.size)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param blockHash
+     * @return null on a miss
+     */
+    public Block get(String blockHash) {
+        SizedBlock sizedBlock = cache.getIfPresent(blockHash);
+        return sizedBlock == null ? null : sizedBlock.block;
+    }
+
+    /**
+     * @param block
+     * @param size  serialized size of the block
+     */
+    public void put(Block block, int size) {
+        cache.put(block.getHash(), new SizedBlock(block, size));
+    }
+
+    /**
+     * @param blockHash
+     */
+    public void invalidate(String blockHash) {
+        cache.invalidate(blockHash);
+    }
+
+    /**
+     * Hit, miss and eviction counters
+     *
+     * @return
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     */
+    @AllArgsConstructor
+    private static class SizedBlock {
+        private final Block block;
+        private final int size;
+    }
+}
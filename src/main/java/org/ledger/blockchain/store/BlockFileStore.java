@@ -0,0 +1,240 @@
+package org.ledger.blockchain.store;
+
+import com.google.common.collect.Maps;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only block files in the style of Bitcoin's blk*.dat. Serialized blocks are appended to
+ * the current file until it reaches the size cap, then a new file is started. Each record is
+ * {@code magic (4) + length (4) + block}. Reads go through read-only memory mappings of fixed-size
+ * chunks of the files, so a growing file is mapped again a chunk at a time.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Slf4j
+public class BlockFileStore {
+
+    /**
+     * Start of every record, to find record boundaries when inspecting a file
+     */
+    private static final int RECORD_MAGIC = 0xF9BEB4D9;
+
+    private static final int RECORD_HEADER_LENGTH = Integer.BYTES + Integer.BYTES;
+
+    private static final Pattern BLOCK_FILE_PATTERN = Pattern.compile("blk(\\d{5})\\.dat");
+
+    /**
+     * Size of the mapped chunks of a file
+     */
+    private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final File dir;
+    private final long maxFileSize;
+    private final int chunkSize;
+
+    /**
+     * fileNo &lt;&lt; 32 | chunk index -> read-only mapping of the chunk, shorter than the chunk
+     * size for the end of a file
+     */
+    private final Map<Long, MappedByteBuffer> mappings = Maps.newConcurrentMap();
+
+    private int currentFileNo = -1;
+    private FileChannel currentChannel;
+
+    /**
+     * @param dir         directory of the blk*.dat files
+     * @param maxFileSize size cap of a file in bytes
+     */
+    public BlockFileStore(File dir, long maxFileSize) {
+        this(dir, maxFileSize, CHUNK_SIZE);
+    }
+
+    /**
+     * @param dir
+     * @param maxFileSize
+     * @param chunkSize   size of the mapped chunks
+     */
+    BlockFileStore(File dir, long maxFileSize, int chunkSize) {
+        if (maxFileSize <= 0 || maxFileSize > Integer.MAX_VALUE) {
+            throw new RuntimeException("Fail to open block files ! blocks.maxFileSize must be between 1 and "
+                    + Integer.MAX_VALUE + " ! maxFileSize=" + maxFileSize);
+        }
+        this.dir = dir;
+        this.maxFileSize = maxFileSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Appends the serialized block and flushes it to disk, so the returned location can be committed.
+     *
+     * @param blockBytes
+     * @return
+     */
+    public synchronized BlockLocation append(byte[] blockBytes) {
+        try {
+            openCurrentFile();
+            long recordLength = RECORD_HEADER_LENGTH + blockBytes.length;
+            if (currentChannel.size() > 0 && currentChannel.size() + recordLength > maxFileSize) {
+                currentChannel.close();
+                currentFileNo++;
+                currentChannel = openChannel(currentFileNo);
+            }
+            long offset = currentChannel.size();
+            ByteBuffer record = ByteBuffer.allocate((int) recordLength)
+                    .putInt(RECORD_MAGIC).putInt(blockBytes.length).put(blockBytes);
+            record.flip();
+            while (record.hasRemaining()) {
+                currentChannel.write(record, offset + record.position());
+            }
+            currentChannel.force(false);
+            return new BlockLocation(currentFileNo, offset + RECORD_HEADER_LENGTH, blockBytes.length);
+        } catch (IOException e) {
+            log.error("Fail to append block to block file ! ", e);
+            throw new RuntimeException("Fail to append block to block file ! ", e);
+        }
+    }
+
+    /**
+     * Read-only view of the serialized block, backed by the file mapping without copying
+     *
+     * @param location
+     * @return
+     */
+    public ByteBuffer read(BlockLocation location) {
+        long offset = location.getOffset();
+        long end = offset + location.getLength();
+        long chunk = offset / chunkSize;
+        long chunkStart = chunk * chunkSize;
+        if (end > chunkStart + chunkSize) {
+            // crosses into the next chunk, mapped on its own
+            return map(location.getFileNo(), offset, end, end - offset);
+        }
+        long key = (long) location.getFileNo() << 32 | chunk;
+        MappedByteBuffer mapping = mappings.get(key);
+        if (mapping == null || chunkStart + mapping.capacity() < end) {
+            mapping = mapChunk(location.getFileNo(), chunk, end);
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.limit((int) (end - chunkStart)).position((int) (offset - chunkStart));
+        return view.slice();
+    }
+
+    /**
+     * Maps the chunk as far as the file goes. The chunk at the end of the current file grows, so
+     * it is mapped again once a read goes past the end of its mapping.
+     *
+     * @param fileNo
+     * @param chunk
+     * @param minEnd file offset the mapping must reach
+     * @return
+     */
+    private synchronized MappedByteBuffer mapChunk(int fileNo, long chunk, long minEnd) {
+        long key = (long) fileNo << 32 | chunk;
+        long chunkStart = chunk * chunkSize;
+        MappedByteBuffer mapping = mappings.get(key);
+        if (mapping != null && chunkStart + mapping.capacity() >= minEnd) {
+            return mapping;
+        }
+        mapping = map(fileNo, chunkStart, minEnd, chunkSize);
+        mappings.put(key, mapping);
+        return mapping;
+    }
+
+    /**
+     * @param fileNo
+     * @param position  file offset of the mapping
+     * @param minEnd    file offset the mapping must reach
+     * @param maxLength
+     * @return a mapping from the position, up to the max length or the end of the file
+     */
+    private MappedByteBuffer map(int fileNo, long position, long minEnd, long maxLength) {
+        try (RandomAccessFile file = new RandomAccessFile(blockFile(fileNo), "r")) {
+            if (file.length() < minEnd) {
+                throw new RuntimeException("Fail to read block file ! file is truncated ! fileNo=" + fileNo);
+            }
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, position, Math.min(maxLength, file.length() - position));
+        } catch (IOException e) {
+            log.error("Fail to map block file ! fileNo=" + fileNo, e);
+            throw new RuntimeException("Fail to map block file ! fileNo=" + fileNo, e);
+        }
+    }
+
+    /**
+     * Opens the newest file for appending
+     */
+    private void openCurrentFile() throws IOException {
+        if (currentChannel != null) {
+            return;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Fail to create block file dir ! dir=" + dir);
+        }
+        // the oldest files may have been deleted by pruning
+        currentFileNo = 0;
+        String[] names = dir.list();
+        for (String name : names == null ? new String[0] : names) {
+            Matcher matcher = BLOCK_FILE_PATTERN.matcher(name);
+            if (matcher.matches()) {
+                currentFileNo = Math.max(currentFileNo, Integer.parseInt(matcher.group(1)));
+            }
+        }
+        currentChannel = openChannel(currentFileNo);
+    }
+
+    /**
+     * @param fileNo
+     * @return
+     */
+    private FileChannel openChannel(int fileNo) throws IOException {
+        return new RandomAccessFile(blockFile(fileNo), "rw").getChannel();
+    }
+
+    /**
+     * @param fileNo
+     * @return
+     */
+    File blockFile(int fileNo) {
+        return new File(dir, String.format("blk%05d.dat", fileNo));
+    }
+
+    /**
+     * Deletes the files before the given one, once none of their blocks are needed any more
+     *
+     * @param fileNo first file to keep
+     */
+    public synchronized void deleteFilesBefore(int fileNo) {
+        mappings.keySet().removeIf(key -> (int) (key >>> 32) < fileNo);
+        for (int n = fileNo - 1; n >= 0 && blockFile(n).exists(); n--) {
+            if (!blockFile(n).delete()) {
+                throw new RuntimeException("Fail to delete block file ! fileNo=" + n);
+            }
+            log.info("Deleted pruned block file, fileNo={}", n);
+        }
+    }
+
+    /**
+     */
+    public synchronized void close() {
+        try {
+            if (currentChannel != null) {
+                currentChannel.close();
+                currentChannel = null;
+            }
+            mappings.clear();
+        } catch (IOException e) {
+            log.error("Fail to close block file ! ", e);
+            throw new RuntimeException("Fail to close block file ! ", e);
+        }
+    }
+}
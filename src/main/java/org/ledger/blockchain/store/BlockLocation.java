@@ -0,0 +1,65 @@
+package org.ledger.blockchain.store;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where a block is stored in the flat block files
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BlockLocation {
+
+    /**
+     * First byte of an encoded location. Blocks serialized now never start with it, so locations
+     * and blocks can share the blocks column family. Registered blocks of older versions do, but
+     * are longer than a location.
+     */
+    public static final byte MARKER = (byte) 0xFF;
+
+    private static final int ENCODED_LENGTH = 1 + Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    /**
+     * Number of the blk*.dat file
+     */
+    private int fileNo;
+    /**
+     * Offset of the serialized block in the file
+     */
+    private long offset;
+    /**
+     * Length of the serialized block
+     */
+    private int length;
+
+    /**
+     * @return
+     */
+    public byte[] encode() {
+        return ByteBuffer.allocate(ENCODED_LENGTH).put(MARKER).putInt(fileNo).putLong(offset).putInt(length).array();
+    }
+
+    /**
+     * @param bytes
+     * @return
+     */
+    public static boolean isLocation(byte[] bytes) {
+        return bytes.length == ENCODED_LENGTH && bytes[0] == MARKER;
+    }
+
+    /**
+     * @param bytes
+     * @return
+     */
+    public static BlockLocation decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, ENCODED_LENGTH - 1);
+        return new BlockLocation(buffer.getInt(), buffer.getLong(), buffer.getInt());
+    }
+}
@@ -0,0 +1,329 @@
+package org.ledger.blockchain.store;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit of the write-ahead log. Writers apply their batch without a sync, and a background
+ * thread syncs the log for every write applied since the last sync at once, so writers arriving
+ * while a sync is running share the next one. When the log is synced is set by the
+ * {@link SyncPolicy}: the durability window is traded for write throughput on purpose.
+ * <p>
+ * Only the sync is grouped here. Batches are not merged by this class: writers call
+ * {@link RocksDB#write} concurrently, and RocksDB already joins concurrent writes into one log
+ * write, led by one of the writers. Merging them again here would only add a copy of each batch.
+ * <p>
+ * The log is written in order, so a sync covers every write applied before it, and a crash loses
+ * a suffix of the writes at most, never part of a batch.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Slf4j
+public class GroupCommitWriter implements AutoCloseable {
+
+    /**
+     * When the write-ahead log is synced
+     */
+    public enum SyncPolicy {
+        /**
+         * writers return once a sync covers their write
+         */
+        ALWAYS,
+        /**
+         * the log is synced every interval, writers return once their write is applied. A machine
+         * crash loses the writes of the last interval at most.
+         */
+        INTERVAL,
+        /**
+         * the OS writes the log back, writers return once their write is applied. A process crash
+         * loses nothing, a machine crash loses what the OS has not written back.
+         */
+        NONE
+    }
+
+    private final RocksDB db;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalMillis;
+    private final WriteOptions writeOptions = new WriteOptions();
+    private final WriteOptions syncWriteOptions = new WriteOptions().setSync(true);
+    private final Thread syncThread;
+
+    /**
+     * Sequence of the last applied write, guarded by this
+     */
+    private long appliedSequence;
+    /**
+     * Every write up to this sequence is synced, guarded by this
+     */
+    private long syncedSequence;
+    /**
+     * Highest sequence a writer waits to be synced, guarded by this
+     */
+    private long requestedSequence;
+    /**
+     * When the last sync started, guarded by this
+     */
+    private long lastSyncNanos = System.nanoTime();
+    /**
+     * First failed sync. Later syncs do not make up for it, so every wait fails from then on.
+     */
+    private Exception syncError;
+    private boolean closed;
+    /**
+     * Writes past the closed check that are not applied yet, guarded by this. The sync thread,
+     * and with it {@link #close()}, waits for them.
+     */
+    private int activeWrites;
+
+    private long syncs;
+    /**
+     * Number of writes covered by each sync
+     */
+    private final Histogram groupSizes = new Histogram();
+    /**
+     * Time from the start of a write until its writer returns
+     */
+    private final Histogram latencyMicros = new Histogram();
+
+    /**
+     * @param db
+     * @param syncPolicy
+     * @param syncIntervalMillis sync interval of {@link SyncPolicy#INTERVAL}, positive
+     */
+    public GroupCommitWriter(RocksDB db, SyncPolicy syncPolicy, long syncIntervalMillis) {
+        if (syncPolicy == SyncPolicy.INTERVAL && syncIntervalMillis <= 0) {
+            throw new RuntimeException("Fail to open writer ! sync interval must be positive ! syncIntervalMillis="
+                    + syncIntervalMillis);
+        }
+        this.db = db;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.syncThread = new Thread(this::runSyncs, "group-commit");
+        this.syncThread.setDaemon(true);
+        this.syncThread.start();
+    }
+
+    /**
+     * Applies the batch without waiting for a sync. Reads see the batch once this returns.
+     *
+     * @param batch
+     * @return to wait for the write with {@link #awaitDurable} or {@link #sync}
+     */
+    public Ticket write(WriteBatch batch) throws RocksDBException {
+        long startNanos = System.nanoTime();
+        synchronized (this) {
+            if (closed) {
+                throw new RuntimeException("Fail to write ! writer is closed ! ");
+            }
+            activeWrites++;
+        }
+        try {
+            db.write(writeOptions, batch);
+            synchronized (this) {
+                return new Ticket(++appliedSequence, startNanos);
+            }
+        } finally {
+            synchronized (this) {
+                if (--activeWrites == 0 && closed) {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the write is as durable as the sync policy asks for. Writers call it after
+     * leaving their own locks, so that the next writers can apply their batches meanwhile.
+     *
+     * @param ticket
+     */
+    public void awaitDurable(Ticket ticket) {
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            awaitSync(ticket.sequence);
+        }
+        latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - ticket.startNanos));
+    }
+
+    /**
+     * Waits until the write is synced, whatever the sync policy
+     *
+     * @param ticket
+     */
+    public void sync(Ticket ticket) {
+        awaitSync(ticket.sequence);
+        latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - ticket.startNanos));
+    }
+
+    /**
+     * @param sequence
+     */
+    private synchronized void awaitSync(long sequence) {
+        requestedSequence = Math.max(requestedSequence, sequence);
+        notifyAll();
+        try {
+            while (syncedSequence < sequence && syncError == null) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Fail to sync write ! interrupted ! ", e);
+        }
+        if (syncedSequence < sequence) {
+            throw new RuntimeException("Fail to sync write ! ", syncError);
+        }
+    }
+
+    /**
+     * Body of the sync thread: waits for a writer or the interval, then syncs every applied write.
+     * Once closed, it makes a last sync after the active writes are applied.
+     */
+    private void runSyncs() {
+        while (true) {
+            long targetSequence;
+            synchronized (this) {
+                try {
+                    long waitMillis;
+                    while (!isDrained() && (waitMillis = syncWaitMillis()) != 0) {
+                        if (waitMillis > 0) {
+                            wait(waitMillis);
+                        } else {
+                            wait();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (syncError != null || appliedSequence == syncedSequence) {
+                    if (isDrained()) {
+                        return;
+                    }
+                    continue;
+                }
+                targetSequence = appliedSequence;
+                lastSyncNanos = System.nanoTime();
+            }
+            // an empty batch written with sync syncs the log up to its end
+            Exception error = null;
+            try (WriteBatch batch = new WriteBatch()) {
+                db.write(syncWriteOptions, batch);
+            } catch (RocksDBException | RuntimeException e) {
+                log.error("Fail to sync write-ahead log ! ", e);
+                error = e;
+            }
+            synchronized (this) {
+                if (error == null) {
+                    groupSizes.record(targetSequence - syncedSequence);
+                    syncs++;
+                    syncedSequence = targetSequence;
+                } else {
+                    syncError = error;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Guarded by this
+     *
+     * @return whether the writer is closed and no write is still being applied
+     */
+    private boolean isDrained() {
+        return closed && activeWrites == 0;
+    }
+
+    /**
+     * Guarded by this. Under {@link SyncPolicy#INTERVAL} applied writes are synced once the
+     * interval since the last sync has passed, so a steady stream of writes shares one sync per
+     * interval; waiting writers are synced right away.
+     *
+     * @return 0 when a sync is due, else milliseconds to wait, negative to wait for a writer
+     */
+    private long syncWaitMillis() {
+        if (syncError != null) {
+            return -1;
+        }
+        if (requestedSequence > syncedSequence) {
+            return 0;
+        }
+        if (syncPolicy != SyncPolicy.INTERVAL) {
+            return -1;
+        }
+        if (appliedSequence == syncedSequence) {
+            // writers do not notify, look again after an interval
+            return syncIntervalMillis;
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSyncNanos);
+        return Math.max(syncIntervalMillis - elapsedMillis, 0);
+    }
+
+    /**
+     * @return
+     */
+    public synchronized Stats getStats() {
+        return new Stats(syncPolicy, appliedSequence, syncs, groupSizes.toString(), latencyMicros.toString());
+    }
+
+    /**
+     * Rejects new writes, and stops the sync thread after a last sync of the writes applied and
+     * being applied
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeOptions.close();
+        syncWriteOptions.close();
+    }
+
+    /**
+     * An applied write
+     */
+    @AllArgsConstructor
+    public static class Ticket {
+        private final long sequence;
+        private final long startNanos;
+    }
+
+    /**
+     * Counters of the writer
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Stats {
+        private final SyncPolicy syncPolicy;
+        private final long writes;
+        private final long syncs;
+        /**
+         * distribution of the number of writes covered by one sync
+         */
+        private final String groupSizes;
+        /**
+         * distribution of the write latency in microseconds
+         */
+        private final String latencyMicros;
+
+        @Override
+        public String toString() {
+            return "syncPolicy=" + syncPolicy + ", writes=" + writes + ", syncs=" + syncs
+                    + ", groupSizes={" + groupSizes + "}, latencyMicros={" + latencyMicros + "}";
+        }
+    }
+}
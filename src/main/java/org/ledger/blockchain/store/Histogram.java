@@ -0,0 +1,70 @@
+package org.ledger.blockchain.store;
+
+/**
+ * Distribution of non-negative values in power-of-two buckets, bucket i holds the values in
+ * [2^(i-1), 2^i). Percentiles are reported as the upper bound of their bucket, capped by the max.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class Histogram {
+
+    private final long[] buckets = new long[Long.SIZE + 1];
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * @param value
+     */
+    public synchronized void record(long value) {
+        value = Math.max(0, value);
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @return 0 when nothing is recorded
+     */
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return 0 when nothing is recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return i == 0 ? 0 : Math.min(max, (1L << i) - 1);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, max=%d",
+                count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), max);
+    }
+}
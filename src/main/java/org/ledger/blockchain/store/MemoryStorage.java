@@ -0,0 +1,603 @@
+package org.ledger.blockchain.store;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.block.BlockHeader;
+import org.ledger.blockchain.block.BlockView;
+import org.ledger.blockchain.transaction.BlockUndo;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.Transaction;
+import org.ledger.blockchain.transaction.UTXO;
+import org.ledger.blockchain.transaction.UTXODelta;
+import org.ledger.blockchain.util.BinaryCodec;
+import org.ledger.blockchain.util.ConfigUtils;
+import org.ledger.blockchain.util.SerializeUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Storage engine that keeps the chain in concurrent maps, for throughput tests and simulations
+ * that should not touch the disk. Nothing survives the process. Blocks are kept as objects, so
+ * callers must not modify them.
+ * <p>
+ * Changes are serialized by a lock. Each change keeps the values it replaces in an undo log until
+ * no read view older than the change is open, so views read the maps as they were when they were
+ * opened without locking and without holding off commits.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Slf4j
+public class MemoryStorage implements StorageEngine {
+
+    private final Map<String, Block> blocks = Maps.newConcurrentMap();
+    /**
+     * height -> block hash
+     */
+    private final Map<Long, String> blockHashes = Maps.newConcurrentMap();
+    /**
+     * hex txId -> location of the transaction
+     */
+    private final Map<String, TxLocation> txLocations = Maps.newConcurrentMap();
+    /**
+     * hex txId -> unspent outputs of the transaction, spent outputs are null. Sorted, like the
+     * chainstate of the RocksDB engine, for snapshot export.
+     */
+    private final ConcurrentNavigableMap<String, TXOutput[]> chainstate = new ConcurrentSkipListMap<>();
+    /**
+     * hex pubKeyHash + hex txId + hex output index -> unspent output
+     */
+    private final ConcurrentNavigableMap<String, UTXO> addressIndex = new ConcurrentSkipListMap<>();
+    /**
+     * block hash -> undo record of the block
+     */
+    private final Map<String, BlockUndo> undoRecords = Maps.newConcurrentMap();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Last finished change and the tip it left, read views open at it
+     */
+    private volatile Version version = new Version(0, "", -1);
+    /**
+     * change number -> values the change replaced. The undo of a change is logged before the
+     * change starts, and dropped once no open read view is older than it.
+     */
+    private final ConcurrentNavigableMap<Long, Undo> undoLog = new ConcurrentSkipListMap<>();
+    /**
+     * change number a view opened at -> open views at it
+     */
+    private final ConcurrentNavigableMap<Long, Integer> openViews = new ConcurrentSkipListMap<>();
+    /**
+     * Undo of the running change, only used under the lock
+     */
+    private Undo undo;
+
+    @Getter
+    private volatile String lastBlockHash = "";
+    @Getter
+    private volatile long tipHeight = -1;
+    @Getter
+    private final boolean txIndexEnabled;
+    @Getter
+    private volatile boolean txIndexComplete;
+    /**
+     * Blocks below it were loaded from a UTXO snapshot
+     */
+    @Getter
+    private volatile long pruneHeight;
+
+    public MemoryStorage() {
+        this.txIndexEnabled = ConfigUtils.getInstance().getBoolean("index.tx.enabled");
+        this.txIndexComplete = txIndexEnabled;
+    }
+
+    @Override
+    public void commitBlock(Block block, UTXODelta delta) {
+        beginChange();
+        try {
+            Map<String, TXOutput[]> spentUTXOs = Maps.newHashMap();
+            for (Map.Entry<String, TXOutput[]> entry : delta.getPutUTXOs().entrySet()) {
+                TXOutput[] before = putUTXOs(entry.getKey(), entry.getValue());
+                if (before != null) {
+                    spentUTXOs.put(entry.getKey(), before);
+                }
+            }
+            for (String txId : delta.getDeletedTxIds()) {
+                TXOutput[] before = putUTXOs(txId, null);
+                if (before != null) {
+                    spentUTXOs.put(txId, before);
+                }
+            }
+            undoRecords.put(block.getHash(), new BlockUndo(spentUTXOs));
+            put(blocks, block.getHash(), block, undo.blocks);
+            put(blockHashes, tipHeight + 1, block.getHash(), undo.blockHashes);
+            if (txIndexEnabled) {
+                indexTransactions(block);
+            }
+            lastBlockHash = block.getHash();
+            tipHeight++;
+        } finally {
+            endChange();
+        }
+    }
+
+    @Override
+    public void disconnectBlock(Block block) {
+        beginChange();
+        try {
+            if (!block.getHash().equals(lastBlockHash)) {
+                throw new RuntimeException("Fail to disconnect block ! block is not the last block ! blockHash=" + block.getHash());
+            }
+            if (tipHeight == 0) {
+                throw new RuntimeException("Fail to disconnect block ! can not disconnect the genesis block ! ");
+            }
+            if (tipHeight <= pruneHeight) {
+                throw new RuntimeException("Fail to disconnect block ! the previous block is pruned ! blockHash=" + block.getHash());
+            }
+            BlockUndo blockUndo = undoRecords.remove(block.getHash());
+            if (blockUndo == null) {
+                throw new RuntimeException("Fail to disconnect block ! no undo record ! blockHash=" + block.getHash());
+            }
+            Map<String, TXOutput[]> spentUTXOs = blockUndo.getSpentUTXOs();
+            Set<String> changedTxIds = Sets.newHashSet(spentUTXOs.keySet());
+            for (Transaction transaction : block.getTransactions()) {
+                String txId = Hex.encodeHexString(transaction.getTxId());
+                changedTxIds.add(txId);
+                put(txLocations, txId, null, undo.txLocations);
+            }
+            for (String txId : changedTxIds) {
+                putUTXOs(txId, spentUTXOs.get(txId));
+            }
+            put(blocks, block.getHash(), null, undo.blocks);
+            put(blockHashes, tipHeight, null, undo.blockHashes);
+            lastBlockHash = block.getPrevBlockHash();
+            tipHeight--;
+        } finally {
+            endChange();
+        }
+    }
+
+    @Override
+    public void resetUTXOs(Map<String, TXOutput[]> utxos) {
+        beginChange();
+        try {
+            resetChainstate(utxos);
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * @param utxos
+     */
+    private void resetChainstate(Map<String, TXOutput[]> utxos) {
+        for (String txId : Lists.newArrayList(chainstate.keySet())) {
+            if (!utxos.containsKey(txId)) {
+                putUTXOs(txId, null);
+            }
+        }
+        for (Map.Entry<String, TXOutput[]> entry : utxos.entrySet()) {
+            putUTXOs(entry.getKey(), null);
+            putUTXOs(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void rebuildTxIndex() {
+        beginChange();
+        try {
+            for (String txId : Lists.newArrayList(txLocations.keySet())) {
+                put(txLocations, txId, null, undo.txLocations);
+            }
+            for (long height = pruneHeight; height <= tipHeight; height++) {
+                indexTransactions(getBlock(blockHashes.get(height)));
+            }
+            txIndexComplete = true;
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * @param block
+     */
+    private void indexTransactions(Block block) {
+        Transaction[] transactions = block.getTransactions();
+        for (int position = 0; position < transactions.length; position++) {
+            put(txLocations, Hex.encodeHexString(transactions[position].getTxId()), new TxLocation(block.getHash(), position), undo.txLocations);
+        }
+    }
+
+    /**
+     * Replaces a chainstate entry and updates the address index
+     *
+     * @param txId
+     * @param after outputs after the change, null to remove the entry
+     * @return outputs before the change, null if there was no entry
+     */
+    private TXOutput[] putUTXOs(String txId, TXOutput[] after) {
+        TXOutput[] before = put(chainstate, txId, after, undo.chainstate);
+        int length = Math.max(before == null ? 0 : before.length, after == null ? 0 : after.length);
+        for (int outIndex = 0; outIndex < length; outIndex++) {
+            TXOutput beforeOutput = before != null && outIndex < before.length ? before[outIndex] : null;
+            TXOutput afterOutput = after != null && outIndex < after.length ? after[outIndex] : null;
+            if (beforeOutput != null && afterOutput == null) {
+                addressIndex.remove(addressIndexKey(beforeOutput.getPubKeyHash(), txId, outIndex));
+            } else if (beforeOutput == null && afterOutput != null) {
+                addressIndex.put(addressIndexKey(afterOutput.getPubKeyHash(), txId, outIndex), new UTXO(txId, outIndex, afterOutput));
+            }
+        }
+        return before;
+    }
+
+    /**
+     * Replaces a value, logging the value it replaces for the read views first
+     *
+     * @param map
+     * @param key
+     * @param value    null to remove the key
+     * @param undoPart where the change logs replaced values of the map
+     * @return the value before the change
+     */
+    private static <K, V> V put(Map<K, V> map, K key, V value, Map<K, Optional<V>> undoPart) {
+        undoPart.putIfAbsent(key, Optional.ofNullable(map.get(key)));
+        return value == null ? map.remove(key) : map.put(key, value);
+    }
+
+    /**
+     * Takes the lock and logs the undo of the change
+     */
+    private void beginChange() {
+        lock.lock();
+        undo = new Undo();
+        undoLog.put(version.getChange() + 1, undo);
+    }
+
+    /**
+     * Publishes the change to new read views, and releases the lock
+     */
+    private void endChange() {
+        try {
+            version = new Version(version.getChange() + 1, lastBlockHash, tipHeight);
+            undo = null;
+            trimUndoLog();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the undo of the changes every open read view sees. The version is read before the
+     * open views, and views check the version again once registered, so a view opening meanwhile
+     * either is seen here or opens at a newer version.
+     */
+    private void trimUndoLog() {
+        long seenByAll = version.getChange();
+        Map.Entry<Long, Integer> oldestView = openViews.firstEntry();
+        if (oldestView != null && oldestView.getKey() < seenByAll) {
+            seenByAll = oldestView.getKey();
+        }
+        undoLog.headMap(seenByAll, true).clear();
+    }
+
+    @Override
+    public String getBlockHash(long height) {
+        return height > tipHeight ? null : blockHashes.get(height);
+    }
+
+    @Override
+    public Block getBlock(String blockHash) {
+        Block block = blocks.get(blockHash);
+        if (block == null) {
+            throw new RuntimeException("Fail to get block ! blockHash=" + blockHash);
+        }
+        return block;
+    }
+
+    @Override
+    public BlockView getBlockView(String blockHash, BlockView view) {
+        return (view == null ? new BlockView() : view).wrap(ByteBuffer.wrap(BinaryCodec.encode(getBlock(blockHash))));
+    }
+
+    @Override
+    public BlockHeader getBlockHeader(String blockHash) {
+        return BlockHeader.newBlockHeader(getBlock(blockHash));
+    }
+
+    @Override
+    public TxLocation getTxLocation(byte[] txId) {
+        return txLocations.get(Hex.encodeHexString(txId));
+    }
+
+    @Override
+    public TXOutput[] getUTXOs(String txId) {
+        return chainstate.get(txId);
+    }
+
+    @Override
+    public List<UTXO> getAddressUTXOs(byte[] pubKeyHash) {
+        String prefix = Hex.encodeHexString(pubKeyHash);
+        return Lists.newArrayList(addressIndex.subMap(prefix, prefix + Character.MAX_VALUE).values());
+    }
+
+    /**
+     * The address index is maintained with every change
+     *
+     * @return
+     */
+    @Override
+    public boolean isAddressIndexComplete() {
+        return true;
+    }
+
+    /**
+     * Lock-free, the view is registered at the last finished change and reads past the undo of
+     * later changes
+     *
+     * @return
+     */
+    @Override
+    public ReadView openReadView() {
+        while (true) {
+            Version opened = version;
+            openViews.merge(opened.getChange(), 1, Integer::sum);
+            if (version == opened) {
+                return new MemoryReadView(opened);
+            }
+            closeView(opened.getChange());
+        }
+    }
+
+    /**
+     * @param change the view opened at
+     */
+    private void closeView(long change) {
+        openViews.computeIfPresent(change, (key, count) -> count == 1 ? null : count - 1);
+        trimUndoLog();
+    }
+
+    @Override
+    public long exportUTXOSnapshot(File file) {
+        try (MemoryReadView view = (MemoryReadView) openReadView()) {
+            if (view.getTipHeight() < 0) {
+                throw new RuntimeException("Fail to export UTXO snapshot ! the chain is empty ! ");
+            }
+            Map<String, TXOutput[]> utxos = view.getChainstate();
+            try (UTXOSnapshot.Writer writer = new UTXOSnapshot.Writer(file, Hex.decodeHex(view.getLastBlockHash()), view.getTipHeight())) {
+                for (Map.Entry<String, TXOutput[]> entry : utxos.entrySet()) {
+                    writer.write(Hex.decodeHex(entry.getKey()), SerializeUtils.serialize(entry.getValue()));
+                }
+            }
+            return utxos.size();
+        } catch (IOException | DecoderException e) {
+            log.error("Fail to export UTXO snapshot ! file=" + file, e);
+            throw new RuntimeException("Fail to export UTXO snapshot ! file=" + file, e);
+        }
+    }
+
+    /**
+     * The snapshot is read and checked completely before it is applied
+     */
+    @Override
+    public long importUTXOSnapshot(File file) {
+        beginChange();
+        try (UTXOSnapshot.Reader reader = new UTXOSnapshot.Reader(file)) {
+            if (tipHeight >= 0) {
+                throw new RuntimeException("Fail to import UTXO snapshot ! the chain is not empty ! ");
+            }
+            Map<String, TXOutput[]> utxos = Maps.newHashMap();
+            while (reader.next()) {
+                utxos.put(Hex.encodeHexString(reader.getTxId()), (TXOutput[]) SerializeUtils.deserialize(reader.getUtxosBytes()));
+            }
+            resetChainstate(utxos);
+            lastBlockHash = Hex.encodeHexString(reader.getTipHash());
+            tipHeight = reader.getTipHeight();
+            pruneHeight = reader.getTipHeight() + 1;
+            txIndexComplete = txIndexEnabled;
+            return utxos.size();
+        } catch (IOException e) {
+            log.error("Fail to import UTXO snapshot ! file=" + file, e);
+            throw new RuntimeException("Fail to import UTXO snapshot ! file=" + file, e);
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Nothing to release, the chain is dropped with the object
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @param pubKeyHash
+     * @param txId
+     * @param outIndex
+     * @return
+     */
+    private static String addressIndexKey(byte[] pubKeyHash, String txId, int outIndex) {
+        return Hex.encodeHexString(pubKeyHash) + txId + String.format("%08x", outIndex);
+    }
+
+    /**
+     * Last finished change and the tip it left
+     */
+    @Getter
+    private static class Version {
+
+        private final long change;
+        private final String lastBlockHash;
+        private final long tipHeight;
+
+        private Version(long change, String lastBlockHash, long tipHeight) {
+            this.change = change;
+            this.lastBlockHash = lastBlockHash;
+            this.tipHeight = tipHeight;
+        }
+    }
+
+    /**
+     * Values one change replaced, empty for keys it added. The address index is derived from the
+     * chainstate and not logged.
+     */
+    private static class Undo {
+
+        private final Map<String, Optional<Block>> blocks = Maps.newConcurrentMap();
+        private final Map<Long, Optional<String>> blockHashes = Maps.newConcurrentMap();
+        private final Map<String, Optional<TxLocation>> txLocations = Maps.newConcurrentMap();
+        private final Map<String, Optional<TXOutput[]>> chainstate = Maps.newConcurrentMap();
+    }
+
+    /**
+     * Reads the live maps, then the undo of the changes after the view in order: the first undo
+     * holding a key has its value at the view. Changes log a value before replacing it, so a
+     * value read from a change after the view is always corrected by its undo.
+     */
+    private class MemoryReadView implements ReadView {
+
+        private final Version opened;
+        private boolean closed;
+
+        private MemoryReadView(Version opened) {
+            this.opened = opened;
+        }
+
+        @Override
+        public String getLastBlockHash() {
+            return opened.getLastBlockHash();
+        }
+
+        @Override
+        public long getTipHeight() {
+            return opened.getTipHeight();
+        }
+
+        @Override
+        public Block getBlock(String blockHash) {
+            Block block = read(blocks, blockHash, undo -> undo.blocks);
+            if (block == null) {
+                throw new RuntimeException("Fail to get block ! blockHash=" + blockHash);
+            }
+            return block;
+        }
+
+        @Override
+        public BlockView getBlockView(String blockHash, BlockView view) {
+            return (view == null ? new BlockView() : view).wrap(ByteBuffer.wrap(BinaryCodec.encode(getBlock(blockHash))));
+        }
+
+        @Override
+        public String getBlockHash(long height) {
+            return height > opened.getTipHeight() ? null : read(blockHashes, height, undo -> undo.blockHashes);
+        }
+
+        @Override
+        public TxLocation getTxLocation(byte[] txId) {
+            return read(txLocations, Hex.encodeHexString(txId), undo -> undo.txLocations);
+        }
+
+        @Override
+        public TXOutput[] getUTXOs(String txId) {
+            return read(chainstate, txId, undo -> undo.chainstate);
+        }
+
+        /**
+         * The live address index, with the outputs of the transactions changed after the view
+         * replaced by their outputs at the view
+         *
+         * @param pubKeyHash
+         * @return
+         */
+        @Override
+        public List<UTXO> getAddressUTXOs(byte[] pubKeyHash) {
+            List<UTXO> live = MemoryStorage.this.getAddressUTXOs(pubKeyHash);
+            Set<String> changedTxIds = Sets.newHashSet();
+            for (Undo undo : undoLog.tailMap(opened.getChange(), false).values()) {
+                changedTxIds.addAll(undo.chainstate.keySet());
+            }
+            if (changedTxIds.isEmpty()) {
+                return live;
+            }
+            List<UTXO> utxos = Lists.newArrayList();
+            for (UTXO utxo : live) {
+                if (!changedTxIds.contains(utxo.getTxId())) {
+                    utxos.add(utxo);
+                }
+            }
+            for (String txId : changedTxIds) {
+                TXOutput[] outputs = getUTXOs(txId);
+                for (int outIndex = 0; outputs != null && outIndex < outputs.length; outIndex++) {
+                    if (outputs[outIndex] != null && Arrays.equals(outputs[outIndex].getPubKeyHash(), pubKeyHash)) {
+                        utxos.add(new UTXO(txId, outIndex, outputs[outIndex]));
+                    }
+                }
+            }
+            utxos.sort(Comparator.comparing(UTXO::getTxId).thenComparingInt(UTXO::getOutIndex));
+            return utxos;
+        }
+
+        /**
+         * @return the chainstate at the view, sorted by txId
+         */
+        private Map<String, TXOutput[]> getChainstate() {
+            Map<String, TXOutput[]> utxos = new TreeMap<>(chainstate);
+            for (Undo undo : undoLog.tailMap(opened.getChange(), false).values()) {
+                for (String txId : undo.chainstate.keySet()) {
+                    TXOutput[] outputs = getUTXOs(txId);
+                    if (outputs == null) {
+                        utxos.remove(txId);
+                    } else {
+                        utxos.put(txId, outputs);
+                    }
+                }
+            }
+            return utxos;
+        }
+
+        /**
+         * @param map     live map
+         * @param key
+         * @param undoPart part of an undo logging the map
+         * @return the value at the view
+         */
+        private <K, V> V read(Map<K, V> map, K key, Function<Undo, Map<K, Optional<V>>> undoPart) {
+            V value = map.get(key);
+            for (Undo undo : undoLog.tailMap(opened.getChange(), false).values()) {
+                Optional<V> before = undoPart.apply(undo).get(key);
+                if (before != null) {
+                    return before.orElse(null);
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                closeView(opened.getChange());
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.ledger.blockchain.store;
+
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.block.BlockView;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.UTXO;
+
+import java.util.List;
+
+/**
+ * Consistent point-in-time view of a {@link StorageEngine}. Blocks committed after the view was
+ * opened are not visible through it. Views must be closed.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public interface ReadView extends AutoCloseable {
+
+    /**
+     * @return hash of the last block of the view, empty for an empty chain
+     */
+    String getLastBlockHash();
+
+    /**
+     * @return height of the last block of the view, -1 for an empty chain
+     */
+    long getTipHeight();
+
+    /**
+     * @param blockHash
+     * @return
+     */
+    Block getBlock(String blockHash);
+
+    /**
+     * Wraps the view around the block as stored in this read view, see
+     * {@link StorageEngine#getBlockView}
+     *
+     * @param blockHash
+     * @param view      reused, a new view if null
+     * @return the view
+     */
+    BlockView getBlockView(String blockHash, BlockView view);
+
+    /**
+     * @param height
+     * @return null if there is no block at the height
+     */
+    String getBlockHash(long height);
+
+    /**
+     * @param txId
+     * @return null if the transaction is not indexed
+     */
+    TxLocation getTxLocation(byte[] txId);
+
+    /**
+     * @param txId
+     * @return null if the transaction has no unspent outputs
+     */
+    TXOutput[] getUTXOs(String txId);
+
+    /**
+     * @param pubKeyHash
+     * @return
+     */
+    List<UTXO> getAddressUTXOs(byte[] pubKeyHash);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,84 @@
+package org.ledger.blockchain.store;
+
+import lombok.Getter;
+
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.block.BlockView;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.UTXO;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.Snapshot;
+
+import java.util.List;
+
+/**
+ * Read view backed by a RocksDB snapshot. Any number of views can be read from other threads
+ * while blocks are committed, without locking.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+class RocksDBReadView implements ReadView {
+
+    private final RocksDBStorage store;
+    private final Snapshot snapshot;
+    private final ReadOptions readOptions;
+    @Getter
+    private final String lastBlockHash;
+    @Getter
+    private final long tipHeight;
+
+    RocksDBReadView(RocksDBStorage store, Snapshot snapshot, ReadOptions readOptions, String lastBlockHash, long tipHeight) {
+        this.store = store;
+        this.snapshot = snapshot;
+        this.readOptions = readOptions;
+        this.lastBlockHash = lastBlockHash;
+        this.tipHeight = tipHeight;
+    }
+
+    @Override
+    public Block getBlock(String blockHash) {
+        return store.getBlock(readOptions, blockHash);
+    }
+
+    @Override
+    public BlockView getBlockView(String blockHash, BlockView view) {
+        return store.getBlockView(readOptions, blockHash, view);
+    }
+
+    @Override
+    public String getBlockHash(long height) {
+        if (height > tipHeight) {
+            return null;
+        }
+        return store.getBlockHash(readOptions, height);
+    }
+
+    @Override
+    public TxLocation getTxLocation(byte[] txId) {
+        return store.getTxLocation(readOptions, txId);
+    }
+
+    @Override
+    public TXOutput[] getUTXOs(String txId) {
+        return store.getUTXOs(readOptions, txId);
+    }
+
+    @Override
+    public List<UTXO> getAddressUTXOs(byte[] pubKeyHash) {
+        return store.getAddressUTXOs(readOptions, pubKeyHash);
+    }
+
+    /**
+     * @return
+     */
+    ReadOptions getReadOptions() {
+        return readOptions;
+    }
+
+    @Override
+    public void close() {
+        readOptions.close();
+        store.releaseSnapshot(snapshot);
+    }
+}
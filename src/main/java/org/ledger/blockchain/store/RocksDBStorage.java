@@ -0,0 +1,1534 @@
+package org.ledger.blockchain.store;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.block.BlockHeader;
+import org.ledger.blockchain.block.BlockView;
+import org.ledger.blockchain.transaction.BlockUndo;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.Transaction;
+import org.ledger.blockchain.transaction.TransactionView;
+import org.ledger.blockchain.transaction.UTXO;
+import org.ledger.blockchain.transaction.UTXODelta;
+import org.ledger.blockchain.util.BinaryCodec;
+import org.ledger.blockchain.util.ByteUtils;
+import org.ledger.blockchain.util.ConfigUtils;
+import org.ledger.blockchain.util.SerializeUtils;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.EnvOptions;
+import org.rocksdb.IngestExternalFileOptions;
+import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.RocksObject;
+import org.rocksdb.Snapshot;
+import org.rocksdb.SstFileWriter;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent storage engine on RocksDB, in {@code blockchain.db} of the given directory.
+ * Every block, UTXO entry and the tip pointer is stored under its own key, with each kind of
+ * data in its own column family:
+ * <pre>
+ * blocks:     block hash -> block, or its {@link BlockLocation} in the flat block files, or its
+ *                           {@link BlockHeader} once the block body is pruned
+ * chainstate: txId       -> unspent outputs of the transaction
+ * undo:       block hash -> {@link BlockUndo} of the block
+ * indexes:    'h' + height -> block hash
+ *             't' + txId   -> block hash + position of the transaction in the block
+ *             'a' + pubKeyHash + txId + output index -> value of the unspent output
+ * default:    'l'        -> hash of the last block
+ *             "height"   -> height of the last block
+ *             "txindex"  -> present when the transaction index covers every unpruned block
+ *             "addrindex" -> present when the address index matches the chainstate
+ *             "prune"    -> height of the lowest block whose body is kept
+ *             "blockssize" -> total size of the kept block bodies
+ * </pre>
+ * Chainstate entries keep spent outputs as null, so an output's array index is its output index.
+ * Heights are 8-byte big-endian, so the height index sorts by height.
+ * Column family options are read from {@code blockchain.properties}.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Slf4j
+public class RocksDBStorage implements StorageEngine {
+
+    /**
+     */
+    private static final String DB_FILE = "blockchain.db";
+    /**
+     * Key of the legacy single-value blocks bucket
+     */
+    private static final String BLOCKS_BUCKET_KEY = "blocks";
+    /**
+     * Key of the legacy single-value chainstate bucket
+     */
+    private static final String CHAINSTATE_BUCKET_KEY = "chainstate";
+
+    /**
+     * Key prefix of blocks written to the default column family by older versions
+     */
+    private static final String BLOCK_PREFIX = "b";
+    /**
+     * Key prefix of chainstate entries written to the default column family by older versions
+     */
+    private static final String CHAINSTATE_PREFIX = "c";
+    /**
+     */
+    private static final byte[] LAST_BLOCK_KEY = "l".getBytes(StandardCharsets.UTF_8);
+    /**
+     */
+    private static final byte[] TIP_HEIGHT_KEY = "height".getBytes(StandardCharsets.UTF_8);
+    /**
+     */
+    private static final byte[] TX_INDEX_COMPLETE_KEY = "txindex".getBytes(StandardCharsets.UTF_8);
+    /**
+     */
+    private static final byte[] ADDRESS_INDEX_COMPLETE_KEY = "addrindex".getBytes(StandardCharsets.UTF_8);
+    /**
+     */
+    private static final byte[] PRUNE_HEIGHT_KEY = "prune".getBytes(StandardCharsets.UTF_8);
+    /**
+     */
+    private static final byte[] KEPT_BLOCKS_SIZE_KEY = "keptsize".getBytes(StandardCharsets.UTF_8);
+    /**
+     * Former key of the kept blocks size. It starts with {@link #BLOCK_PREFIX}, so the default
+     * column family migration moved it into the blocks column family on every open.
+     */
+    private static final byte[] OLD_KEPT_BLOCKS_SIZE_KEY = "blockssize".getBytes(StandardCharsets.UTF_8);
+    /**
+     * Set once the default column family is migrated
+     */
+    private static final byte[] DEFAULT_CF_MIGRATED_KEY = "migrated".getBytes(StandardCharsets.UTF_8);
+    /**
+     * Set while a UTXO snapshot is imported, removed with the batch that writes its tip
+     */
+    private static final byte[] SNAPSHOT_IMPORT_KEY = "importing".getBytes(StandardCharsets.UTF_8);
+    /**
+     * Key prefix of the block height index
+     */
+    private static final byte HEIGHT_INDEX_PREFIX = 'h';
+    /**
+     * Key prefix of the transaction index
+     */
+    private static final byte TX_INDEX_PREFIX = 't';
+    /**
+     * Key prefix of the address index
+     */
+    private static final byte ADDRESS_INDEX_PREFIX = 'a';
+    /**
+     * Records per batch when rebuilding the UTXO set
+     */
+    private static final int REINDEX_BATCH_RECORDS = 10000;
+    /**
+     * Blocks per batch when rebuilding an index
+     */
+    private static final int REINDEX_BATCH_BLOCKS = 1000;
+    /**
+     * Key of the last block hash inside the legacy blocks bucket
+     */
+    private static final String LEGACY_LAST_BLOCK_KEY = "l";
+
+    private static final String BLOCKS_COLUMN_FAMILY = "blocks";
+    private static final String CHAINSTATE_COLUMN_FAMILY = "chainstate";
+    private static final String INDEXES_COLUMN_FAMILY = "indexes";
+    private static final String UNDO_COLUMN_FAMILY = "undo";
+
+    /**
+     * Directory of the db and the block files
+     */
+    private final File dir;
+
+    private RocksDB db;
+
+    private ColumnFamilyHandle blocksHandle;
+    private ColumnFamilyHandle chainstateHandle;
+    private ColumnFamilyHandle indexesHandle;
+    private ColumnFamilyHandle undoHandle;
+    private final List<ColumnFamilyHandle> handles = Lists.newArrayList();
+    private WriteOptions syncWriteOptions;
+    /**
+     * Writes after the store is opened, synced as write.sync says
+     */
+    private GroupCommitWriter writer;
+    /**
+     * Reads of the latest state
+     */
+    private ReadOptions latestReadOptions;
+
+    /**
+     * Flat block files, used for new blocks when blocks.storage is flatfile
+     */
+    private BlockFileStore blockFileStore;
+    private boolean flatFileBlocks;
+    /**
+     */
+    private BlockCache blockCache;
+    /**
+     * Options and filters that must outlive the db
+     */
+    private final List<RocksObject> resources = Lists.newArrayList();
+
+    /**
+     */
+    private volatile byte[] lastBlockHashBytes;
+    /**
+     * Height of the last block, -1 for an empty chain
+     */
+    private volatile long tipHeight = -1;
+    /**
+     */
+    @Getter
+    private boolean txIndexEnabled;
+    /**
+     * Whether every unpruned block of the chain is in the transaction index
+     */
+    @Getter
+    private volatile boolean txIndexComplete;
+    /**
+     * Whether the address index matches the chainstate
+     */
+    @Getter
+    private volatile boolean addressIndexComplete;
+    /**
+     * Height of the lowest block whose body is kept, 0 when nothing is pruned
+     */
+    @Getter
+    private volatile long pruneHeight;
+    /**
+     * Total serialized size of the kept block bodies, -1 when it is not tracked
+     */
+    private long keptBlocksSize = -1;
+    /**
+     * Number of most recent block bodies to keep, 0 for no limit
+     */
+    private long pruneKeepBlocks;
+    /**
+     * Upper bound of keptBlocksSize, 0 for no limit
+     */
+    private long pruneMaxBlocksSize;
+
+    /**
+     * Opens, or creates, the store in the directory
+     *
+     * @param dir
+     */
+    public RocksDBStorage(File dir) {
+        this.dir = dir;
+        openDB();
+        openBlockFiles();
+        migrateLegacyBuckets();
+        migrateDefaultColumnFamily();
+        initBlockBucket();
+        initHeightIndex();
+        initIndexes();
+        initPrune();
+        openWriter();
+        recoverSnapshotImport();
+    }
+
+    /**
+     */
+    private void openDB() {
+        try {
+            ConfigUtils config = ConfigUtils.getInstance();
+            DBOptions dbOptions = new DBOptions()
+                    .setCreateIfMissing(true)
+                    .setCreateMissingColumnFamilies(true)
+                    .setMaxOpenFiles(config.getInt("rocksdb.maxOpenFiles"))
+                    .setMaxBackgroundJobs(config.getInt("rocksdb.maxBackgroundJobs"));
+            resources.add(dbOptions);
+
+            List<ColumnFamilyDescriptor> descriptors = Lists.newArrayList(
+                    new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, track(new ColumnFamilyOptions())),
+                    new ColumnFamilyDescriptor(toBytes(BLOCKS_COLUMN_FAMILY), blocksOptions()),
+                    new ColumnFamilyDescriptor(toBytes(CHAINSTATE_COLUMN_FAMILY), chainstateOptions()),
+                    new ColumnFamilyDescriptor(toBytes(INDEXES_COLUMN_FAMILY), indexesOptions()),
+                    // undo records are written with each block and only read to disconnect it
+                    new ColumnFamilyDescriptor(toBytes(UNDO_COLUMN_FAMILY), blocksOptions()));
+            db = RocksDB.open(dbOptions, new File(dir, DB_FILE).getPath(), descriptors, handles);
+            blocksHandle = handles.get(1);
+            chainstateHandle = handles.get(2);
+            indexesHandle = handles.get(3);
+            undoHandle = handles.get(4);
+            syncWriteOptions = track(new WriteOptions().setSync(true));
+            latestReadOptions = track(new ReadOptions());
+        } catch (RocksDBException e) {
+            log.error("Fail to open db ! ", e);
+            throw new RuntimeException("Fail to open db ! ", e);
+        }
+    }
+
+    /**
+     */
+    private void openBlockFiles() {
+        ConfigUtils config = ConfigUtils.getInstance();
+        flatFileBlocks = "flatfile".equals(config.getString("blocks.storage"));
+        File blocksDir = new File(config.getString("blocks.dir"));
+        if (!blocksDir.isAbsolute()) {
+            blocksDir = new File(dir, blocksDir.getPath());
+        }
+        blockFileStore = new BlockFileStore(blocksDir, config.getSize("blocks.maxFileSize"));
+        blockCache = new BlockCache(config.getSize("blocks.cacheSize"));
+    }
+
+    /**
+     */
+    private void openWriter() {
+        ConfigUtils config = ConfigUtils.getInstance();
+        String syncPolicy = config.getString("write.sync");
+        try {
+            writer = new GroupCommitWriter(db, GroupCommitWriter.SyncPolicy.valueOf(syncPolicy.toUpperCase()),
+                    config.getLong("write.syncIntervalMs"));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Fail to open writer ! unknown write.sync ! writeSync=" + syncPolicy, e);
+        }
+    }
+
+    /**
+     * Blocks are appended and rarely read again: large write buffers, compressed, small cache.
+     *
+     * @return
+     */
+    private ColumnFamilyOptions blocksOptions() {
+        ConfigUtils config = ConfigUtils.getInstance();
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                .setBlockSize(config.getSize("rocksdb.blocks.blockSize"))
+                .setBlockCacheSize(config.getSize("rocksdb.blocks.blockCacheSize"));
+        return track(new ColumnFamilyOptions()
+                .setWriteBufferSize(config.getSize("rocksdb.blocks.writeBufferSize"))
+                .setMaxWriteBufferNumber(config.getInt("rocksdb.blocks.maxWriteBufferNumber"))
+                .setTargetFileSizeBase(config.getSize("rocksdb.blocks.targetFileSizeBase"))
+                .setCompressionType(CompressionType.valueOf(config.getString("rocksdb.blocks.compression")))
+                .setTableFormatConfig(tableConfig));
+    }
+
+    /**
+     * Chainstate is dominated by point lookups: bloom filters and a large block cache.
+     *
+     * @return
+     */
+    private ColumnFamilyOptions chainstateOptions() {
+        ConfigUtils config = ConfigUtils.getInstance();
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                .setBlockSize(config.getSize("rocksdb.chainstate.blockSize"))
+                .setBlockCacheSize(config.getSize("rocksdb.chainstate.blockCacheSize"))
+                .setFilter(track(new BloomFilter(config.getInt("rocksdb.chainstate.bloomBitsPerKey"), false)))
+                .setCacheIndexAndFilterBlocks(true)
+                .setPinL0FilterAndIndexBlocksInCache(true);
+        return track(new ColumnFamilyOptions()
+                .setWriteBufferSize(config.getSize("rocksdb.chainstate.writeBufferSize"))
+                .setCompressionType(CompressionType.valueOf(config.getString("rocksdb.chainstate.compression")))
+                .setTableFormatConfig(tableConfig));
+    }
+
+    /**
+     * Indexes get bloom filters and, if configured, a fixed-length prefix extractor so that
+     * prefix seeks can use prefix bloom filters.
+     *
+     * @return
+     */
+    private ColumnFamilyOptions indexesOptions() {
+        ConfigUtils config = ConfigUtils.getInstance();
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                .setBlockSize(config.getSize("rocksdb.indexes.blockSize"))
+                .setBlockCacheSize(config.getSize("rocksdb.indexes.blockCacheSize"))
+                .setFilter(track(new BloomFilter(config.getInt("rocksdb.indexes.bloomBitsPerKey"), false)));
+        ColumnFamilyOptions options = track(new ColumnFamilyOptions()
+                .setWriteBufferSize(config.getSize("rocksdb.indexes.writeBufferSize"))
+                .setCompressionType(CompressionType.valueOf(config.getString("rocksdb.indexes.compression")))
+                .setTableFormatConfig(tableConfig));
+        int prefixLength = config.getInt("rocksdb.indexes.prefixLength");
+        if (prefixLength > 0) {
+            options.useFixedLengthPrefixExtractor(prefixLength);
+            options.setMemtablePrefixBloomSizeRatio(0.1);
+        }
+        return options;
+    }
+
+    /**
+     * @param resource
+     * @param <T>
+     * @return
+     */
+    private <T extends RocksObject> T track(T resource) {
+        resources.add(resource);
+        return resource;
+    }
+
+    /**
+     * Splits the buckets written by older versions, where a whole bucket was one serialized map,
+     * into one key per record. Runs once; the legacy values are removed in the same batch.
+     */
+    private void migrateLegacyBuckets() {
+        try (WriteBatch batch = new WriteBatch(); WriteOptions writeOptions = new WriteOptions()) {
+            byte[] blockBucketKey = SerializeUtils.serializeLegacy(BLOCKS_BUCKET_KEY);
+            byte[] blockBucketBytes = db.get(blockBucketKey);
+            if (blockBucketBytes != null) {
+                Map<String, byte[]> legacyBlocks = deserializeBucket(blockBucketBytes);
+                for (Map.Entry<String, byte[]> entry : legacyBlocks.entrySet()) {
+                    if (LEGACY_LAST_BLOCK_KEY.equals(entry.getKey())) {
+                        batch.put(LAST_BLOCK_KEY, entry.getValue());
+                    } else {
+                        batch.put(blocksHandle, toBytes(entry.getKey()), entry.getValue());
+                    }
+                }
+                batch.remove(blockBucketKey);
+                log.info("Migrating legacy blocks bucket, records={}", legacyBlocks.size());
+            }
+
+            byte[] chainstateBucketKey = SerializeUtils.serializeLegacy(CHAINSTATE_BUCKET_KEY);
+            byte[] chainstateBucketBytes = db.get(chainstateBucketKey);
+            if (chainstateBucketBytes != null) {
+                Map<String, byte[]> legacyChainstate = deserializeBucket(chainstateBucketBytes);
+                for (Map.Entry<String, byte[]> entry : legacyChainstate.entrySet()) {
+                    batch.put(chainstateHandle, toBytes(entry.getKey()), entry.getValue());
+                }
+                batch.remove(chainstateBucketKey);
+                log.info("Migrating legacy chainstate bucket, records={}", legacyChainstate.size());
+            }
+
+            if (batch.count() > 0) {
+                writeOptions.setSync(true);
+                db.write(writeOptions, batch);
+            }
+        } catch (RocksDBException e) {
+            log.error("Fail to migrate legacy buckets ! ", e);
+            throw new RuntimeException("Fail to migrate legacy buckets ! ", e);
+        }
+    }
+
+    /**
+     * @param bucketBytes a bucket written by older versions
+     * @return key -> serialized record
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, byte[]> deserializeBucket(byte[] bucketBytes) {
+        return (Map<String, byte[]>) SerializeUtils.deserialize(bucketBytes);
+    }
+
+    /**
+     * Moves the prefixed block and chainstate keys that older versions kept in the default
+     * column family into their own column families. Runs once; the kept blocks size under its
+     * former key is dropped, with the copies earlier runs moved, and recomputed on demand.
+     */
+    private void migrateDefaultColumnFamily() {
+        try (WriteBatch batch = new WriteBatch(); WriteOptions writeOptions = new WriteOptions()) {
+            if (db.get(DEFAULT_CF_MIGRATED_KEY) != null) {
+                return;
+            }
+            int records = moveToColumnFamily(batch, BLOCK_PREFIX, blocksHandle)
+                    + moveToColumnFamily(batch, CHAINSTATE_PREFIX, chainstateHandle);
+            batch.remove(OLD_KEPT_BLOCKS_SIZE_KEY);
+            batch.remove(blocksHandle, Arrays.copyOfRange(OLD_KEPT_BLOCKS_SIZE_KEY, BLOCK_PREFIX.length(), OLD_KEPT_BLOCKS_SIZE_KEY.length));
+            batch.put(DEFAULT_CF_MIGRATED_KEY, new byte[]{1});
+            if (records > 0) {
+                log.info("Migrating default column family, records={}", records);
+            }
+            writeOptions.setSync(true);
+            db.write(writeOptions, batch);
+        } catch (RocksDBException e) {
+            log.error("Fail to migrate default column family ! ", e);
+            throw new RuntimeException("Fail to migrate default column family ! ", e);
+        }
+    }
+
+    /**
+     * @param batch
+     * @param prefix
+     * @param handle
+     * @return records moved
+     */
+    private int moveToColumnFamily(WriteBatch batch, String prefix, ColumnFamilyHandle handle) throws RocksDBException {
+        byte[] prefixBytes = toBytes(prefix);
+        int records = 0;
+        try (RocksIterator iterator = db.newIterator()) {
+            for (iterator.seek(prefixBytes); iterator.isValid(); iterator.next()) {
+                byte[] key = iterator.key();
+                if (!startsWith(key, prefixBytes)) {
+                    break;
+                }
+                if (Arrays.equals(key, OLD_KEPT_BLOCKS_SIZE_KEY)) {
+                    continue;
+                }
+                batch.put(handle, Arrays.copyOfRange(key, prefixBytes.length, key.length), iterator.value());
+                batch.remove(key);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Only the tip is loaded, blocks and UTXOs are read on demand
+     */
+    private void initBlockBucket() {
+        try {
+            lastBlockHashBytes = db.get(LAST_BLOCK_KEY);
+        } catch (RocksDBException e) {
+            log.error("Fail to init block bucket ! ", e);
+            throw new RuntimeException("Fail to init block bucket ! ", e);
+        }
+    }
+
+    /**
+     * Loads the tip height, building the height index once for chains written before it existed.
+     */
+    private void initHeightIndex() {
+        try {
+            byte[] tipHeightBytes = db.get(TIP_HEIGHT_KEY);
+            if (tipHeightBytes != null) {
+                tipHeight = ByteUtils.toLong(tipHeightBytes);
+                return;
+            }
+            if (lastBlockHashBytes == null) {
+                return;
+            }
+            List<String> blockHashes = Lists.newArrayList();
+            BlockView view = new BlockView();
+            String blockHash = getLastBlockHash();
+            while (!ByteUtils.ZERO_HASH.equals(blockHash)) {
+                blockHashes.add(blockHash);
+                blockHash = getBlockView(blockHash, view).getPrevBlockHash();
+            }
+            log.info("Building block height index, blocks={}", blockHashes.size());
+            try (WriteBatch batch = new WriteBatch()) {
+                long height = 0;
+                for (String hash : Lists.reverse(blockHashes)) {
+                    batch.put(indexesHandle, heightIndexKey(height++), toBytes(hash));
+                }
+                batch.put(TIP_HEIGHT_KEY, ByteUtils.toBytes(height - 1));
+                db.write(syncWriteOptions, batch);
+            }
+            tipHeight = blockHashes.size() - 1;
+        } catch (RocksDBException e) {
+            log.error("Fail to init height index ! ", e);
+            throw new RuntimeException("Fail to init height index ! ", e);
+        }
+    }
+
+    /**
+     */
+    private void initIndexes() {
+        try {
+            txIndexEnabled = ConfigUtils.getInstance().getBoolean("index.tx.enabled");
+            txIndexComplete = db.get(TX_INDEX_COMPLETE_KEY) != null;
+            addressIndexComplete = db.get(ADDRESS_INDEX_COMPLETE_KEY) != null;
+            if (txIndexEnabled && !txIndexComplete && tipHeight >= 0) {
+                log.warn("Transaction index is incomplete, lookups fall back to chain scans. Run 'reindextx' to build it.");
+            }
+        } catch (RocksDBException e) {
+            log.error("Fail to init tx index ! ", e);
+            throw new RuntimeException("Fail to init tx index ! ", e);
+        }
+    }
+
+    /**
+     * Loads the pruning state. The size of the kept block bodies is computed once when pruning
+     * by size is enabled on a chain that does not track it yet.
+     */
+    private void initPrune() {
+        try {
+            ConfigUtils config = ConfigUtils.getInstance();
+            pruneKeepBlocks = config.getLong("prune.keepBlocks");
+            pruneMaxBlocksSize = config.getSize("prune.maxBlocksSize");
+            byte[] pruneHeightBytes = db.get(PRUNE_HEIGHT_KEY);
+            pruneHeight = pruneHeightBytes == null ? 0 : ByteUtils.toLong(pruneHeightBytes);
+            byte[] keptBlocksSizeBytes = db.get(KEPT_BLOCKS_SIZE_KEY);
+            if (keptBlocksSizeBytes != null) {
+                keptBlocksSize = ByteUtils.toLong(keptBlocksSizeBytes);
+            } else if (pruneMaxBlocksSize > 0) {
+                long size = 0;
+                for (long height = pruneHeight; height <= tipHeight; height++) {
+                    size += bodySize(get(latestReadOptions, blocksHandle, getBlockHash(height)));
+                }
+                db.put(syncWriteOptions, KEPT_BLOCKS_SIZE_KEY, ByteUtils.toBytes(size));
+                keptBlocksSize = size;
+            }
+        } catch (RocksDBException e) {
+            log.error("Fail to init prune state ! ", e);
+            throw new RuntimeException("Fail to init prune state ! ", e);
+        }
+    }
+
+    /**
+     * Point lookup of a record
+     *
+     * @param readOptions
+     * @param handle
+     * @param key
+     * @return null if the record does not exist
+     */
+    private byte[] get(ReadOptions readOptions, ColumnFamilyHandle handle, String key) {
+        try {
+            return db.get(handle, readOptions, toBytes(key));
+        } catch (RocksDBException e) {
+            log.error("Fail to get record ! key=" + key, e);
+            throw new RuntimeException("Fail to get record ! key=" + key, e);
+        }
+    }
+
+    /**
+     * Writes the block, the new tip, the UTXO changes of the block and its undo record as one
+     * atomic batch, so a crash never leaves a tip without its block or a half-applied chainstate.
+     * The batch is synced as write.sync says, after the store lock is released.
+     *
+     * @param block
+     * @param delta UTXO changes made by the block
+     */
+    @Override
+    public void commitBlock(Block block, UTXODelta delta) {
+        writer.awaitDurable(connectBlock(block, delta));
+    }
+
+    /**
+     * @param block
+     * @param delta
+     * @return the applied block batch
+     */
+    private synchronized GroupCommitWriter.Ticket connectBlock(Block block, UTXODelta delta) {
+        GroupCommitWriter.Ticket ticket;
+        try (WriteBatch batch = new WriteBatch()) {
+            byte[] blockBytes = SerializeUtils.serialize(block);
+            int bodySize = blockBytes.length;
+            if (flatFileBlocks) {
+                blockBytes = blockFileStore.append(blockBytes).encode();
+            }
+            byte[] tipBlockHashBytes = SerializeUtils.serialize(block.getHash());
+            batch.put(blocksHandle, toBytes(block.getHash()), blockBytes);
+            batch.put(LAST_BLOCK_KEY, tipBlockHashBytes);
+            long height = tipHeight + 1;
+            batch.put(indexesHandle, heightIndexKey(height), toBytes(block.getHash()));
+            batch.put(TIP_HEIGHT_KEY, ByteUtils.toBytes(height));
+            boolean txIndexCompleteAfter = putTxIndex(batch, block);
+
+            Map<String, TXOutput[]> spentUTXOs = Maps.newHashMap();
+            for (Map.Entry<String, TXOutput[]> entry : delta.getPutUTXOs().entrySet()) {
+                TXOutput[] before = getUTXOs(entry.getKey());
+                batch.put(chainstateHandle, toBytes(entry.getKey()), SerializeUtils.serialize(entry.getValue()));
+                updateAddressIndex(batch, entry.getKey(), before, entry.getValue());
+                if (before != null) {
+                    spentUTXOs.put(entry.getKey(), before);
+                }
+            }
+            for (String txId : delta.getDeletedTxIds()) {
+                TXOutput[] before = getUTXOs(txId);
+                batch.remove(chainstateHandle, toBytes(txId));
+                updateAddressIndex(batch, txId, before, null);
+                if (before != null) {
+                    spentUTXOs.put(txId, before);
+                }
+            }
+            batch.put(undoHandle, toBytes(block.getHash()), SerializeUtils.serialize(new BlockUndo(spentUTXOs)));
+            if (tipHeight < 0) {
+                batch.put(ADDRESS_INDEX_COMPLETE_KEY, new byte[0]);
+            }
+            if (keptBlocksSize >= 0) {
+                batch.put(KEPT_BLOCKS_SIZE_KEY, ByteUtils.toBytes(keptBlocksSize + bodySize));
+            }
+
+            ticket = writer.write(batch);
+
+            lastBlockHashBytes = tipBlockHashBytes;
+            tipHeight = height;
+            txIndexComplete = txIndexCompleteAfter;
+            addressIndexComplete = addressIndexComplete || height == 0;
+            if (keptBlocksSize >= 0) {
+                keptBlocksSize += bodySize;
+            }
+        } catch (RocksDBException e) {
+            log.error("Fail to commit block ! block=" + block.toString(), e);
+            throw new RuntimeException("Fail to commit block ! block=" + block.toString(), e);
+        }
+        if (pruneKeepBlocks > 0 || pruneMaxBlocksSize > 0) {
+            pruneBlocks();
+        }
+        return ticket;
+    }
+
+    /**
+     * Disconnects the last block using its undo record: chainstate entries the block spent from
+     * are restored, entries it created are removed, and the tip, height index, transaction index
+     * and address index are reverted, all in one batch. The cost depends on the size of the block
+     * only. The block itself is removed from the store.
+     *
+     * @param block the last block
+     */
+    @Override
+    public void disconnectBlock(Block block) {
+        writer.awaitDurable(revertBlock(block));
+    }
+
+    /**
+     * @param block
+     * @return the applied revert batch
+     */
+    private synchronized GroupCommitWriter.Ticket revertBlock(Block block) {
+        if (!block.getHash().equals(getLastBlockHash())) {
+            throw new RuntimeException("Fail to disconnect block ! block is not the last block ! blockHash=" + block.getHash());
+        }
+        if (tipHeight == 0) {
+            throw new RuntimeException("Fail to disconnect block ! can not disconnect the genesis block ! ");
+        }
+        if (tipHeight <= pruneHeight) {
+            throw new RuntimeException("Fail to disconnect block ! the previous block is pruned ! blockHash=" + block.getHash());
+        }
+        try (WriteBatch batch = new WriteBatch()) {
+            byte[] undoBytes = db.get(undoHandle, toBytes(block.getHash()));
+            if (undoBytes == null) {
+                throw new RuntimeException("Fail to disconnect block ! no undo record ! blockHash=" + block.getHash());
+            }
+            Map<String, TXOutput[]> spentUTXOs = ((BlockUndo) SerializeUtils.deserialize(undoBytes)).getSpentUTXOs();
+
+            Set<String> changedTxIds = Sets.newHashSet(spentUTXOs.keySet());
+            for (Transaction transaction : block.getTransactions()) {
+                changedTxIds.add(Hex.encodeHexString(transaction.getTxId()));
+                if (txIndexEnabled) {
+                    batch.remove(indexesHandle, txIndexKey(transaction.getTxId()));
+                }
+            }
+            for (String txId : changedTxIds) {
+                TXOutput[] before = spentUTXOs.get(txId);
+                if (before == null) {
+                    batch.remove(chainstateHandle, toBytes(txId));
+                } else {
+                    batch.put(chainstateHandle, toBytes(txId), SerializeUtils.serialize(before));
+                }
+                updateAddressIndex(batch, txId, getUTXOs(txId), before);
+            }
+
+            byte[] blockBytes = get(latestReadOptions, blocksHandle, block.getHash());
+            long bodySize = blockBytes == null ? 0 : bodySize(blockBytes);
+            byte[] tipBlockHashBytes = SerializeUtils.serialize(block.getPrevBlockHash());
+            batch.remove(blocksHandle, toBytes(block.getHash()));
+            batch.remove(undoHandle, toBytes(block.getHash()));
+            batch.remove(indexesHandle, heightIndexKey(tipHeight));
+            batch.put(LAST_BLOCK_KEY, tipBlockHashBytes);
+            batch.put(TIP_HEIGHT_KEY, ByteUtils.toBytes(tipHeight - 1));
+            if (keptBlocksSize >= 0) {
+                batch.put(KEPT_BLOCKS_SIZE_KEY, ByteUtils.toBytes(keptBlocksSize - bodySize));
+            }
+
+            GroupCommitWriter.Ticket ticket = writer.write(batch);
+
+            lastBlockHashBytes = tipBlockHashBytes;
+            tipHeight--;
+            if (keptBlocksSize >= 0) {
+                keptBlocksSize -= bodySize;
+            }
+            blockCache.invalidate(block.getHash());
+            return ticket;
+        } catch (RocksDBException e) {
+            log.error("Fail to disconnect block ! blockHash=" + block.getHash(), e);
+            throw new RuntimeException("Fail to disconnect block ! blockHash=" + block.getHash(), e);
+        }
+    }
+
+    /**
+     * Replaces the bodies of the oldest blocks by their headers until the retention is met, and
+     * removes their transactions from the transaction index. The chainstate is not touched, and
+     * the last block is always kept. Block files holding only pruned blocks are deleted.
+     */
+    private void pruneBlocks() {
+        long targetHeight = pruneKeepBlocks > 0 ? tipHeight + 1 - pruneKeepBlocks : 0;
+        long size = keptBlocksSize;
+        List<String> prunedBlockHashes = Lists.newArrayList();
+        BlockView blockView = new BlockView();
+        TransactionView transactionView = new TransactionView();
+        try (WriteBatch batch = new WriteBatch()) {
+            for (long height = pruneHeight; height < tipHeight; height++) {
+                boolean overSize = pruneMaxBlocksSize > 0 && size > pruneMaxBlocksSize;
+                if (height >= targetHeight && !overSize) {
+                    break;
+                }
+                String blockHash = getBlockHash(height);
+                byte[] blockBytes = get(latestReadOptions, blocksHandle, blockHash);
+                wrapBlock(latestReadOptions, blockHash, blockBytes, blockView);
+                BlockHeader header = isCanonicalBlock(blockBytes)
+                        ? BlockHeader.newBlockHeader(blockView) : BlockHeader.newBlockHeader(getBlock(latestReadOptions, blockHash));
+                batch.put(blocksHandle, toBytes(blockHash), SerializeUtils.serialize(header));
+                batch.remove(undoHandle, toBytes(blockHash));
+                for (int i = 0; i < blockView.getTransactionCount(); i++) {
+                    batch.remove(indexesHandle, txIndexKey(blockView.getTransaction(i, transactionView).getTxId()));
+                }
+                size -= bodySize(blockBytes);
+                prunedBlockHashes.add(blockHash);
+            }
+            if (prunedBlockHashes.isEmpty()) {
+                return;
+            }
+            long newPruneHeight = pruneHeight + prunedBlockHashes.size();
+            batch.put(PRUNE_HEIGHT_KEY, ByteUtils.toBytes(newPruneHeight));
+            if (keptBlocksSize >= 0) {
+                batch.put(KEPT_BLOCKS_SIZE_KEY, ByteUtils.toBytes(size));
+            }
+            // synced whatever the policy, block files are deleted next
+            writer.sync(writer.write(batch));
+
+            pruneHeight = newPruneHeight;
+            if (keptBlocksSize >= 0) {
+                keptBlocksSize = size;
+            }
+            prunedBlockHashes.forEach(blockCache::invalidate);
+            byte[] firstKeptBytes = get(latestReadOptions, blocksHandle, getBlockHash(newPruneHeight));
+            if (BlockLocation.isLocation(firstKeptBytes)) {
+                blockFileStore.deleteFilesBefore(BlockLocation.decode(firstKeptBytes).getFileNo());
+            }
+            log.info("Pruned block bodies, pruneHeight={}, keptBlocksSize={}", newPruneHeight, keptBlocksSize);
+        } catch (RocksDBException e) {
+            log.error("Fail to prune blocks ! ", e);
+            throw new RuntimeException("Fail to prune blocks ! ", e);
+        }
+    }
+
+    /**
+     * Serialized size of the block body a blocks record refers to, 0 for a pruned block
+     *
+     * @param blockBytes
+     * @return
+     */
+    private static long bodySize(byte[] blockBytes) {
+        if (BlockLocation.isLocation(blockBytes)) {
+            return BlockLocation.decode(blockBytes).getLength();
+        }
+        return isHeaderRecord(blockBytes) ? 0 : blockBytes.length;
+    }
+
+    /**
+     * The type of canonical records is read from their record header. Records written before the
+     * canonical format are decoded.
+     *
+     * @param blockBytes a blocks record that is not a location
+     * @return whether the record is the header of a pruned block
+     */
+    private static boolean isHeaderRecord(byte[] blockBytes) {
+        ByteBuffer record = ByteBuffer.wrap(blockBytes);
+        if (BinaryCodec.isRecord(record)) {
+            return BinaryCodec.getRecordType(record) == BinaryCodec.TYPE_BLOCK_HEADER;
+        }
+        return SerializeUtils.deserialize(blockBytes) instanceof BlockHeader;
+    }
+
+    /**
+     * Adds the transactions of the next block to the transaction index. The index stays complete
+     * only if it was complete before, or the chain was empty, and it is enabled.
+     *
+     * @param batch
+     * @param block
+     * @return whether the index is complete after the batch
+     */
+    private boolean putTxIndex(WriteBatch batch, Block block) throws RocksDBException {
+        if (!txIndexEnabled) {
+            batch.remove(TX_INDEX_COMPLETE_KEY);
+            return false;
+        }
+        Transaction[] transactions = block.getTransactions();
+        for (int position = 0; position < transactions.length; position++) {
+            batch.put(indexesHandle, txIndexKey(transactions[position].getTxId()), txLocationValue(block.getHash(), position));
+        }
+        if (tipHeight < 0) {
+            batch.put(TX_INDEX_COMPLETE_KEY, new byte[0]);
+            return true;
+        }
+        return txIndexComplete;
+    }
+
+    /**
+     * Rebuilds the transaction index from the blocks of the chain
+     */
+    @Override
+    public synchronized void rebuildTxIndex() {
+        try {
+            log.info("Start to rebuild tx index ! blocks={}", tipHeight + 1 - pruneHeight);
+            try (WriteBatch batch = new WriteBatch()) {
+                batch.remove(TX_INDEX_COMPLETE_KEY);
+                batch.deleteRange(indexesHandle, new byte[]{TX_INDEX_PREFIX}, new byte[]{TX_INDEX_PREFIX + 1});
+                writer.write(batch);
+            }
+            txIndexComplete = false;
+
+            BlockView block = new BlockView();
+            TransactionView transaction = new TransactionView();
+            WriteBatch batch = new WriteBatch();
+            try {
+                for (long height = pruneHeight; height <= tipHeight; height++) {
+                    String blockHash = getBlockHash(height);
+                    getBlockView(blockHash, block);
+                    for (int position = 0; position < block.getTransactionCount(); position++) {
+                        batch.put(indexesHandle, txIndexKey(block.getTransaction(position, transaction).getTxId()),
+                                txLocationValue(blockHash, position));
+                    }
+                    if ((height + 1) % REINDEX_BATCH_BLOCKS == 0) {
+                        writer.write(batch);
+                        batch.close();
+                        batch = new WriteBatch();
+                    }
+                }
+                batch.put(TX_INDEX_COMPLETE_KEY, new byte[0]);
+                writer.sync(writer.write(batch));
+            } finally {
+                batch.close();
+            }
+            txIndexComplete = true;
+            log.info("Rebuild tx index finished ! ");
+        } catch (RocksDBException e) {
+            log.error("Fail to rebuild tx index ! ", e);
+            throw new RuntimeException("Fail to rebuild tx index ! ", e);
+        }
+    }
+
+    /**
+     * Location of the transaction from the transaction index
+     *
+     * @param txId
+     * @return null if the transaction is not indexed
+     */
+    @Override
+    public TxLocation getTxLocation(byte[] txId) {
+        return getTxLocation(latestReadOptions, txId);
+    }
+
+    /**
+     * @param readOptions
+     * @param txId
+     * @return
+     */
+    TxLocation getTxLocation(ReadOptions readOptions, byte[] txId) {
+        try {
+            byte[] value = db.get(indexesHandle, readOptions, txIndexKey(txId));
+            if (value == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(value);
+            int position = buffer.getInt();
+            return new TxLocation(new String(value, Integer.BYTES, value.length - Integer.BYTES, StandardCharsets.UTF_8), position);
+        } catch (RocksDBException e) {
+            log.error("Fail to get tx location ! txId=" + Hex.encodeHexString(txId), e);
+            throw new RuntimeException("Fail to get tx location ! txId=" + Hex.encodeHexString(txId), e);
+        }
+    }
+
+    /**
+     * Hash
+     *
+     * @return
+     */
+    @Override
+    public String getLastBlockHash() {
+        if (lastBlockHashBytes != null) {
+            return (String) SerializeUtils.deserialize(lastBlockHashBytes);
+        }
+        return "";
+    }
+
+    /**
+     * Height of the last block
+     *
+     * @return -1 for an empty chain
+     */
+    @Override
+    public long getTipHeight() {
+        return tipHeight;
+    }
+
+    /**
+     * Block hash at the height
+     *
+     * @param height
+     * @return null if there is no block at the height
+     */
+    @Override
+    public String getBlockHash(long height) {
+        if (height > tipHeight) {
+            return null;
+        }
+        return getBlockHash(latestReadOptions, height);
+    }
+
+    /**
+     * @param readOptions
+     * @param height
+     * @return
+     */
+    String getBlockHash(ReadOptions readOptions, long height) {
+        if (height < 0) {
+            return null;
+        }
+        try {
+            byte[] blockHashBytes = db.get(indexesHandle, readOptions, heightIndexKey(height));
+            return blockHashBytes == null ? null : new String(blockHashBytes, StandardCharsets.UTF_8);
+        } catch (RocksDBException e) {
+            log.error("Fail to get block hash by height ! height=" + height, e);
+            throw new RuntimeException("Fail to get block hash by height ! height=" + height, e);
+        }
+    }
+
+    /**
+     * Hit, miss and eviction counters of the block cache
+     *
+     * @return
+     */
+    public CacheStats getBlockCacheStats() {
+        return blockCache.stats();
+    }
+
+    /**
+     * Sync policy, write and sync counters, group size and latency distributions
+     *
+     * @return
+     */
+    public GroupCommitWriter.Stats getWriteStats() {
+        return writer.getStats();
+    }
+
+    /**
+     * Blocks come from the block cache when possible. Callers must not modify returned blocks.
+     *
+     * @param blockHash
+     * @return
+     */
+    @Override
+    public Block getBlock(String blockHash) {
+        return getBlock(latestReadOptions, blockHash);
+    }
+
+    /**
+     * @param readOptions
+     * @param blockHash
+     * @return
+     */
+    Block getBlock(ReadOptions readOptions, String blockHash) {
+        Block block = blockCache.get(blockHash);
+        if (block != null) {
+            return block;
+        }
+        byte[] blockBytes = get(readOptions, blocksHandle, blockHash);
+        if (blockBytes == null) {
+            throw new RuntimeException("Fail to get block ! blockHash=" + blockHash);
+        }
+        if (BlockLocation.isLocation(blockBytes)) {
+            BlockLocation location = BlockLocation.decode(blockBytes);
+            block = (Block) SerializeUtils.deserialize(blockFileStore.read(location));
+            blockCache.put(block, location.getLength());
+            return block;
+        }
+        Object record = SerializeUtils.deserialize(blockBytes);
+        if (record instanceof BlockHeader) {
+            throw new RuntimeException("Fail to get block ! block body is pruned ! blockHash=" + blockHash);
+        }
+        block = (Block) record;
+        blockCache.put(block, blockBytes.length);
+        return block;
+    }
+
+    /**
+     * Blocks in block files are wrapped in place in the file mapping, and blocks read through views
+     * are not put in the block cache. Records written before the canonical format are encoded into
+     * it from the cached or decoded block.
+     *
+     * @param blockHash
+     * @param view
+     * @return
+     */
+    @Override
+    public BlockView getBlockView(String blockHash, BlockView view) {
+        return getBlockView(latestReadOptions, blockHash, view);
+    }
+
+    /**
+     * @param readOptions
+     * @param blockHash
+     * @param view
+     * @return
+     */
+    BlockView getBlockView(ReadOptions readOptions, String blockHash, BlockView view) {
+        return wrapBlock(readOptions, blockHash, get(readOptions, blocksHandle, blockHash), view == null ? new BlockView() : view);
+    }
+
+    /**
+     * @param readOptions the blocks record was read with
+     * @param blockHash
+     * @param blockBytes  blocks record of the block
+     * @param view
+     * @return
+     */
+    private BlockView wrapBlock(ReadOptions readOptions, String blockHash, byte[] blockBytes, BlockView view) {
+        if (blockBytes == null) {
+            throw new RuntimeException("Fail to get block ! blockHash=" + blockHash);
+        }
+        ByteBuffer record = BlockLocation.isLocation(blockBytes)
+                ? blockFileStore.read(BlockLocation.decode(blockBytes)) : ByteBuffer.wrap(blockBytes);
+        if (!BinaryCodec.isRecord(record)) {
+            record = ByteBuffer.wrap(BinaryCodec.encode(getBlock(readOptions, blockHash)));
+        } else if (BinaryCodec.getRecordType(record.duplicate()) == BinaryCodec.TYPE_BLOCK_HEADER) {
+            throw new RuntimeException("Fail to get block ! block body is pruned ! blockHash=" + blockHash);
+        }
+        return view.wrap(record);
+    }
+
+    /**
+     * Header of the block, also available once the block body is pruned
+     *
+     * @param blockHash
+     * @return
+     */
+    @Override
+    public BlockHeader getBlockHeader(String blockHash) {
+        byte[] blockBytes = get(latestReadOptions, blocksHandle, blockHash);
+        if (blockBytes == null) {
+            throw new RuntimeException("Fail to get block header ! blockHash=" + blockHash);
+        }
+        if (!BlockLocation.isLocation(blockBytes) && isHeaderRecord(blockBytes)) {
+            return (BlockHeader) SerializeUtils.deserialize(blockBytes);
+        }
+        if (!isCanonicalBlock(blockBytes)) {
+            return BlockHeader.newBlockHeader(getBlock(latestReadOptions, blockHash));
+        }
+        return BlockHeader.newBlockHeader(wrapBlock(latestReadOptions, blockHash, blockBytes, new BlockView()));
+    }
+
+    /**
+     * Blocks of legacy transactions are kept as Kryo records, and their transactions are hashed
+     * over that encoding, so their headers are built from the decoded block rather than a view.
+     *
+     * @param blockBytes blocks record of a block whose body is kept
+     * @return whether the block is a canonical record
+     */
+    private boolean isCanonicalBlock(byte[] blockBytes) {
+        ByteBuffer record = BlockLocation.isLocation(blockBytes)
+                ? blockFileStore.read(BlockLocation.decode(blockBytes)) : ByteBuffer.wrap(blockBytes);
+        return BinaryCodec.isRecord(record);
+    }
+
+
+    /**
+     * Replaces the whole chainstate, and the address index with it, by the given UTXOs
+     *
+     * @param utxos txId -> unspent outputs, spent outputs are null
+     */
+    @Override
+    public synchronized void resetUTXOs(Map<String, TXOutput[]> utxos) {
+        try {
+            clearChainstate();
+
+            WriteBatch batch = new WriteBatch();
+            try {
+                int records = 0;
+                for (Map.Entry<String, TXOutput[]> entry : utxos.entrySet()) {
+                    batch.put(chainstateHandle, toBytes(entry.getKey()), SerializeUtils.serialize(entry.getValue()));
+                    updateAddressIndex(batch, entry.getKey(), null, entry.getValue());
+                    if (++records % REINDEX_BATCH_RECORDS == 0) {
+                        writer.write(batch);
+                        batch.close();
+                        batch = new WriteBatch();
+                    }
+                }
+                batch.put(ADDRESS_INDEX_COMPLETE_KEY, new byte[0]);
+                writer.sync(writer.write(batch));
+            } finally {
+                batch.close();
+            }
+            addressIndexComplete = true;
+        } catch (RocksDBException e) {
+            log.error("Fail to reset UTXOs ! ", e);
+            throw new RuntimeException("Fail to reset UTXOs ! ", e);
+        }
+    }
+
+    /**
+     * Removes every chainstate entry and the address index. The chainstate is removed with one
+     * range tombstone from its first to its last key, so the batch does not grow with the UTXO set.
+     */
+    private void clearChainstate() throws RocksDBException {
+        try (WriteBatch batch = new WriteBatch()) {
+            batch.remove(ADDRESS_INDEX_COMPLETE_KEY);
+            try (RocksIterator iterator = db.newIterator(chainstateHandle)) {
+                iterator.seekToFirst();
+                if (iterator.isValid()) {
+                    byte[] firstKey = iterator.key();
+                    iterator.seekToLast();
+                    // the end of a range is exclusive, the smallest key after the last one ends it
+                    byte[] endKey = Arrays.copyOf(iterator.key(), iterator.key().length + 1);
+                    batch.deleteRange(chainstateHandle, firstKey, endKey);
+                }
+            }
+            batch.deleteRange(indexesHandle, new byte[]{ADDRESS_INDEX_PREFIX}, new byte[]{ADDRESS_INDEX_PREFIX + 1});
+            writer.write(batch);
+        }
+        addressIndexComplete = false;
+    }
+
+    /**
+     * Removes what an interrupted snapshot import left behind. The tip is written last, with the
+     * marker removed, so a marked store has no tip yet, only a chainstate and part of the address
+     * index.
+     */
+    private void recoverSnapshotImport() {
+        try {
+            if (db.get(SNAPSHOT_IMPORT_KEY) == null) {
+                return;
+            }
+            log.warn("UTXO snapshot import was interrupted, clearing the chainstate. Import the snapshot again.");
+            clearChainstate();
+            try (WriteBatch batch = new WriteBatch()) {
+                batch.remove(SNAPSHOT_IMPORT_KEY);
+                writer.sync(writer.write(batch));
+            }
+        } catch (RocksDBException e) {
+            log.error("Fail to recover snapshot import ! ", e);
+            throw new RuntimeException("Fail to recover snapshot import ! ", e);
+        }
+    }
+
+    /**
+     * Writes the chainstate at the current tip to a snapshot file, see {@link UTXOSnapshot}
+     *
+     * @param file
+     * @return number of transactions with unspent outputs
+     */
+    @Override
+    public long exportUTXOSnapshot(File file) {
+        try (RocksDBReadView view = newReadView();
+             RocksIterator iterator = db.newIterator(chainstateHandle, view.getReadOptions())) {
+            if (view.getTipHeight() < 0) {
+                throw new RuntimeException("Fail to export UTXO snapshot ! the chain is empty ! ");
+            }
+            long records = 0;
+            try (UTXOSnapshot.Writer snapshotWriter = new UTXOSnapshot.Writer(file, decodeHex(view.getLastBlockHash()), view.getTipHeight())) {
+                for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                    snapshotWriter.write(decodeHex(new String(iterator.key(), StandardCharsets.UTF_8)), iterator.value());
+                    records++;
+                }
+            }
+            return records;
+        } catch (IOException e) {
+            log.error("Fail to export UTXO snapshot ! file=" + file, e);
+            throw new RuntimeException("Fail to export UTXO snapshot ! file=" + file, e);
+        }
+    }
+
+    /**
+     * Loads a snapshot file into an empty store. The chainstate is written to an SST file while the
+     * snapshot is read and checked, and then ingested in bulk. The address index is built from the
+     * ingested chainstate. The snapshot tip becomes the tip of the chain, and the blocks up to it
+     * count as pruned, since the store has neither their bodies nor their headers.
+     * <p>
+     * The tip and the index flags are written last, together with the removal of a marker set
+     * before the chainstate is cleared. A store opened with the marker still set was interrupted
+     * in between, and its chainstate and address index are cleared again.
+     *
+     * @param file
+     * @return number of transactions with unspent outputs
+     */
+    @Override
+    public synchronized long importUTXOSnapshot(File file) {
+        if (tipHeight >= 0) {
+            throw new RuntimeException("Fail to import UTXO snapshot ! the chain is not empty ! ");
+        }
+        File sstFile = new File(file.getAbsolutePath() + ".sst");
+        try (UTXOSnapshot.Reader reader = new UTXOSnapshot.Reader(file);
+             EnvOptions envOptions = new EnvOptions();
+             Options sstOptions = new Options().setCompressionType(
+                     CompressionType.valueOf(ConfigUtils.getInstance().getString("rocksdb.chainstate.compression")));
+             SstFileWriter sstFileWriter = new SstFileWriter(envOptions, sstOptions);
+             IngestExternalFileOptions ingestOptions = new IngestExternalFileOptions()) {
+            try (WriteBatch batch = new WriteBatch()) {
+                batch.put(SNAPSHOT_IMPORT_KEY, new byte[0]);
+                writer.sync(writer.write(batch));
+            }
+            clearChainstate();
+
+            long records = 0;
+            sstFileWriter.open(sstFile.getPath());
+            while (reader.next()) {
+                sstFileWriter.put(toBytes(Hex.encodeHexString(reader.getTxId())), reader.getUtxosBytes());
+                records++;
+            }
+            if (records == 0) {
+                throw new RuntimeException("Fail to import UTXO snapshot ! snapshot is empty ! ");
+            }
+            sstFileWriter.finish();
+            db.ingestExternalFile(chainstateHandle, Collections.singletonList(sstFile.getPath()), ingestOptions);
+
+            WriteBatch batch = new WriteBatch();
+            try (RocksIterator iterator = db.newIterator(chainstateHandle)) {
+                int indexed = 0;
+                for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                    updateAddressIndex(batch, new String(iterator.key(), StandardCharsets.UTF_8), null,
+                            (TXOutput[]) SerializeUtils.deserialize(iterator.value()));
+                    if (++indexed % REINDEX_BATCH_RECORDS == 0) {
+                        writer.write(batch);
+                        batch.close();
+                        batch = new WriteBatch();
+                    }
+                }
+                byte[] tipBlockHashBytes = SerializeUtils.serialize(Hex.encodeHexString(reader.getTipHash()));
+                batch.put(LAST_BLOCK_KEY, tipBlockHashBytes);
+                batch.put(TIP_HEIGHT_KEY, ByteUtils.toBytes(reader.getTipHeight()));
+                batch.put(PRUNE_HEIGHT_KEY, ByteUtils.toBytes(reader.getTipHeight() + 1));
+                batch.put(KEPT_BLOCKS_SIZE_KEY, ByteUtils.toBytes(0L));
+                batch.put(ADDRESS_INDEX_COMPLETE_KEY, new byte[0]);
+                if (txIndexEnabled) {
+                    batch.put(TX_INDEX_COMPLETE_KEY, new byte[0]);
+                }
+                batch.remove(SNAPSHOT_IMPORT_KEY);
+                writer.sync(writer.write(batch));
+
+                lastBlockHashBytes = tipBlockHashBytes;
+                tipHeight = reader.getTipHeight();
+                pruneHeight = reader.getTipHeight() + 1;
+                keptBlocksSize = 0;
+                addressIndexComplete = true;
+                txIndexComplete = txIndexEnabled;
+            } finally {
+                batch.close();
+            }
+            return records;
+        } catch (IOException | RocksDBException e) {
+            log.error("Fail to import UTXO snapshot ! file=" + file, e);
+            throw new RuntimeException("Fail to import UTXO snapshot ! file=" + file, e);
+        } finally {
+            if (sstFile.exists() && !sstFile.delete()) {
+                log.warn("Fail to delete temporary SST file ! file={}", sstFile);
+            }
+        }
+    }
+
+    /**
+     * Adds the address index changes between two versions of a chainstate entry to the batch
+     *
+     * @param batch
+     * @param txId
+     * @param before outputs before the change, null if there was no entry
+     * @param after  outputs after the change, null if the entry is removed
+     */
+    private void updateAddressIndex(WriteBatch batch, String txId, TXOutput[] before, TXOutput[] after) throws RocksDBException {
+        byte[] txIdBytes = decodeHex(txId);
+        int length = Math.max(before == null ? 0 : before.length, after == null ? 0 : after.length);
+        for (int outIndex = 0; outIndex < length; outIndex++) {
+            TXOutput beforeOutput = before != null && outIndex < before.length ? before[outIndex] : null;
+            TXOutput afterOutput = after != null && outIndex < after.length ? after[outIndex] : null;
+            if (beforeOutput != null && afterOutput == null) {
+                batch.remove(indexesHandle, addressIndexKey(beforeOutput.getPubKeyHash(), txIdBytes, outIndex));
+            } else if (beforeOutput == null && afterOutput != null) {
+                batch.put(indexesHandle, addressIndexKey(afterOutput.getPubKeyHash(), txIdBytes, outIndex),
+                        Ints.toByteArray(afterOutput.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Unspent outputs locked with the public key hash, from the address index
+     *
+     * @param pubKeyHash
+     * @return
+     */
+    @Override
+    public List<UTXO> getAddressUTXOs(byte[] pubKeyHash) {
+        return getAddressUTXOs(latestReadOptions, pubKeyHash);
+    }
+
+    /**
+     * @param readOptions
+     * @param pubKeyHash
+     * @return
+     */
+    List<UTXO> getAddressUTXOs(ReadOptions readOptions, byte[] pubKeyHash) {
+        List<UTXO> utxos = Lists.newArrayList();
+        byte[] prefix = ByteBuffer.allocate(1 + pubKeyHash.length).put(ADDRESS_INDEX_PREFIX).put(pubKeyHash).array();
+        try (RocksIterator iterator = db.newIterator(indexesHandle, readOptions)) {
+            for (iterator.seek(prefix); iterator.isValid(); iterator.next()) {
+                byte[] key = iterator.key();
+                if (!startsWith(key, prefix)) {
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(key, prefix.length, key.length - prefix.length);
+                byte[] txId = new byte[key.length - prefix.length - Integer.BYTES];
+                buffer.get(txId);
+                int outIndex = buffer.getInt();
+                TXOutput output = new TXOutput(Ints.fromByteArray(iterator.value()), pubKeyHash);
+                utxos.add(new UTXO(Hex.encodeHexString(txId), outIndex, output));
+            }
+        }
+        return utxos;
+    }
+
+    /**
+     * UTXO
+     *
+     * @param key ID
+     */
+    @Override
+    public TXOutput[] getUTXOs(String key) {
+        return getUTXOs(latestReadOptions, key);
+    }
+
+    /**
+     * @param readOptions
+     * @param key
+     * @return
+     */
+    TXOutput[] getUTXOs(ReadOptions readOptions, String key) {
+        byte[] utxosByte = get(readOptions, chainstateHandle, key);
+        if (utxosByte != null) {
+            return (TXOutput[]) SerializeUtils.deserialize(utxosByte);
+        }
+        return null;
+    }
+
+
+    /**
+     * Opens a consistent point-in-time view of blocks, chainstate and indexes. Blocks committed
+     * after the view was opened are not visible through it. The view must be closed.
+     *
+     * @return
+     */
+    @Override
+    public ReadView openReadView() {
+        return newReadView();
+    }
+
+    /**
+     * @return
+     */
+    private RocksDBReadView newReadView() {
+        Snapshot snapshot = db.getSnapshot();
+        ReadOptions readOptions = new ReadOptions().setSnapshot(snapshot);
+        try {
+            byte[] lastBlockHash = db.get(readOptions, LAST_BLOCK_KEY);
+            byte[] height = db.get(readOptions, TIP_HEIGHT_KEY);
+            return new RocksDBReadView(this, snapshot, readOptions,
+                    lastBlockHash == null ? "" : (String) SerializeUtils.deserialize(lastBlockHash),
+                    height == null ? -1 : ByteUtils.toLong(height));
+        } catch (RocksDBException e) {
+            readOptions.close();
+            db.releaseSnapshot(snapshot);
+            log.error("Fail to open read view ! ", e);
+            throw new RuntimeException("Fail to open read view ! ", e);
+        }
+    }
+
+    /**
+     * @param snapshot
+     */
+    void releaseSnapshot(Snapshot snapshot) {
+        db.releaseSnapshot(snapshot);
+    }
+
+    @Override
+    public void close() {
+        log.debug("Block cache stats: {}", blockCache.stats());
+        try {
+            if (writer != null) {
+                writer.close();
+                log.debug("Write stats: {}", writer.getStats());
+            }
+            for (ColumnFamilyHandle handle : handles) {
+                handle.close();
+            }
+            db.close();
+            for (RocksObject resource : resources) {
+                resource.close();
+            }
+            blockFileStore.close();
+        } catch (Exception e) {
+            log.error("Fail to close db ! ", e);
+            throw new RuntimeException("Fail to close db ! ", e);
+        }
+    }
+
+    /**
+     * @param height
+     * @return
+     */
+    private static byte[] heightIndexKey(long height) {
+        return ByteBuffer.allocate(1 + Long.BYTES).put(HEIGHT_INDEX_PREFIX).putLong(height).array();
+    }
+
+    /**
+     * @param txId
+     * @return
+     */
+    private static byte[] txIndexKey(byte[] txId) {
+        return ByteBuffer.allocate(1 + txId.length).put(TX_INDEX_PREFIX).put(txId).array();
+    }
+
+    /**
+     * @param blockHash
+     * @param position
+     * @return
+     */
+    private static byte[] txLocationValue(String blockHash, int position) {
+        byte[] blockHashBytes = toBytes(blockHash);
+        return ByteBuffer.allocate(Integer.BYTES + blockHashBytes.length).putInt(position).put(blockHashBytes).array();
+    }
+
+    /**
+     * @param pubKeyHash
+     * @param txId
+     * @param outIndex
+     * @return
+     */
+    private static byte[] addressIndexKey(byte[] pubKeyHash, byte[] txId, int outIndex) {
+        return ByteBuffer.allocate(1 + pubKeyHash.length + txId.length + Integer.BYTES)
+                .put(ADDRESS_INDEX_PREFIX).put(pubKeyHash).put(txId).putInt(outIndex).array();
+    }
+
+    /**
+     * @param hex txId or block hash
+     * @return
+     */
+    private static byte[] decodeHex(String hex) {
+        try {
+            return Hex.decodeHex(hex);
+        } catch (DecoderException e) {
+            throw new RuntimeException("Fail to decode hex ! hex=" + hex, e);
+        }
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    private static byte[] toBytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param bytes
+     * @param prefix
+     * @return
+     */
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        return bytes.length >= prefix.length && Arrays.equals(Arrays.copyOf(bytes, prefix.length), prefix);
+    }
+}
@@ -1,243 +0,0 @@
-package org.ledger.blockchain.store;
-
-import com.google.common.collect.Maps;
-import lombok.Getter;
-import lombok.extern.slf4j.Slf4j;
-
-import org.ledger.blockchain.block.Block;
-import org.ledger.blockchain.transaction.TXOutput;
-import org.ledger.blockchain.util.SerializeUtils;
-import org.rocksdb.RocksDB;
-import org.rocksdb.RocksDBException;
-
-import java.util.Map;
-
-/**
-*
-* @author Amit Chaudhary
-* @date 2018/03/08
-*/
-@Slf4j
-public class RocksDBUtils {
-
-    /**
-     */
-    private static final String DB_FILE = "blockchain.db";
-    /**
-     * Key
-     */
-    private static final String BLOCKS_BUCKET_KEY = "blocks";
-    /**
-     * Key
-     */
-    private static final String CHAINSTATE_BUCKET_KEY = "chainstate";
-
-    /**
-     */
-    private static final String LAST_BLOCK_KEY = "l";
-
-    private volatile static RocksDBUtils instance;
-
-    public static RocksDBUtils  getInstance() {
-        if (instance == null) {
-            synchronized (RocksDBUtils.class) {
-                if (instance == null) {
-                    instance = new RocksDBUtils();
-                }
-            }
-        }
-        return instance;
-    }
-
-    private RocksDB db;
-
-    /**
-     * block buckets
-     */
-    private Map<String, byte[]> blocksBucket;
-    /**
-     * chainstate buckets
-     */
-    @Getter
-    private Map<String, byte[]> chainstateBucket;
-
-    private RocksDBUtils() {
-        openDB();
-        initBlockBucket();
-        initChainStateBucket();
-    }
-
-    /**
-     */
-    private void openDB() {
-        try {
-            db = RocksDB.open(DB_FILE);
-        } catch (RocksDBException e) {
-            log.error("Fail to open db ! ", e);
-            throw new RuntimeException("Fail to open db ! ", e);
-        }
-    }
-
-    /**
-     * blocks 
-     */
-    private void initBlockBucket() {
-        try {
-            byte[] blockBucketKey = SerializeUtils.serialize(BLOCKS_BUCKET_KEY);
-            byte[] blockBucketBytes = db.get(blockBucketKey);
-            if (blockBucketBytes != null) {
-                blocksBucket = (Map) SerializeUtils.deserialize(blockBucketBytes);
-            } else {
-                blocksBucket = Maps.newHashMap();
-                db.put(blockBucketKey, SerializeUtils.serialize(blocksBucket));
-            }
-        } catch (RocksDBException e) {
-            log.error("Fail to init block bucket ! ", e);
-            throw new RuntimeException("Fail to init block bucket ! ", e);
-        }
-    }
-
-    /**
-     *  blocks 
-     */
-    private void initChainStateBucket() {
-        try {
-            byte[] chainstateBucketKey = SerializeUtils.serialize(CHAINSTATE_BUCKET_KEY);
-            byte[] chainstateBucketBytes = db.get(chainstateBucketKey);
-            if (chainstateBucketBytes != null) {
-                chainstateBucket = (Map) SerializeUtils.deserialize(chainstateBucketBytes);
-            } else {
-                chainstateBucket = Maps.newHashMap();
-                db.put(chainstateBucketKey, SerializeUtils.serialize(chainstateBucket));
-            }
-        } catch (RocksDBException e) {
-            log.error("Fail to init chainstate bucket ! ", e);
-            throw new RuntimeException("Fail to init chainstate bucket ! ", e);
-        }
-    }
-
-    /**
-     * Hash
-     *
-     * @param tipBlockHash
-     */
-    public void putLastBlockHash(String tipBlockHash) {
-        try {
-            blocksBucket.put(LAST_BLOCK_KEY, SerializeUtils.serialize(tipBlockHash));
-            db.put(SerializeUtils.serialize(BLOCKS_BUCKET_KEY), SerializeUtils.serialize(blocksBucket));
-        } catch (RocksDBException e) {
-            log.error("Fail to put last block hash ! tipBlockHash=" + tipBlockHash, e);
-            throw new RuntimeException("Fail to put last block hash ! tipBlockHash=" + tipBlockHash, e);
-        }
-    }
-
-    /**
-     * Hash
-     *
-     * @return
-     */
-    public String getLastBlockHash() {
-        byte[] lastBlockHashBytes = blocksBucket.get(LAST_BLOCK_KEY);
-        if (lastBlockHashBytes != null) {
-            return (String) SerializeUtils.deserialize(lastBlockHashBytes);
-        }
-        return "";
-    }
-
-    /**
-     *
-     * @param block
-     */
-    public void putBlock(Block block) {
-        try {
-            blocksBucket.put(block.getHash(), SerializeUtils.serialize(block));
-            db.put(SerializeUtils.serialize(BLOCKS_BUCKET_KEY), SerializeUtils.serialize(blocksBucket));
-        } catch (RocksDBException e) {
-            log.error("Fail to put block ! block=" + block.toString(), e);
-            throw new RuntimeException("Fail to put block ! block=" + block.toString(), e);
-        }
-    }
-
-    /**
-     *
-     * @param blockHash
-     * @return
-     */
-    public Block getBlock(String blockHash) {
-        byte[] blockBytes = blocksBucket.get(blockHash);
-        if (blockBytes != null) {
-            return (Block) SerializeUtils.deserialize(blockBytes);
-        }
-        throw new RuntimeException("Fail to get block ! blockHash=" + blockHash);
-    }
-
-
-    /**
-     *chainstate bucket
-     */
-    public void cleanChainStateBucket() {
-        try {
-            chainstateBucket.clear();
-        } catch (Exception e) {
-            log.error("Fail to clear chainstate bucket ! ", e);
-            throw new RuntimeException("Fail to clear chainstate bucket ! ", e);
-        }
-    }
-
-    /**
-     * UTXO
-     *
-     * @param key  ID
-     * @param utxos UTXOs
-     */
-    public void putUTXOs(String key, TXOutput[] utxos) {
-        try {
-            chainstateBucket.put(key, SerializeUtils.serialize(utxos));
-            db.put(SerializeUtils.serialize(CHAINSTATE_BUCKET_KEY), SerializeUtils.serialize(chainstateBucket));
-        } catch (Exception e) {
-            log.error("Fail to put UTXOs into chainstate bucket ! key=" + key, e);
-            throw new RuntimeException("Fail to put UTXOs into chainstate bucket ! key=" + key, e);
-        }
-    }
-
-
-    /**
-     * UTXO
-     *
-     * @param key ID
-     */
-    public TXOutput[] getUTXOs(String key) {
-        byte[] utxosByte = chainstateBucket.get(key);
-        if (utxosByte != null) {
-            return (TXOutput[]) SerializeUtils.deserialize(utxosByte);
-        }
-        return null;
-    }
-
-
-    /**
-     *  UTXO
-     *
-     * @param key ID
-     */
-    public void deleteUTXOs(String key) {
-        try {
-            chainstateBucket.remove(key);
-            db.put(SerializeUtils.serialize(CHAINSTATE_BUCKET_KEY), SerializeUtils.serialize(chainstateBucket));
-        } catch (Exception e) {
-            log.error("Fail to delete UTXOs by key ! key=" + key, e);
-            throw new RuntimeException("Fail to delete UTXOs by key ! key=" + key, e);
-        }
-    }
-
-    /**
-     */
-    public void closeDB() {
-        try {
-            db.close();
-        } catch (Exception e) {
-            log.error("Fail to close db ! ", e);
-            throw new RuntimeException("Fail to close db ! ", e);
-        }
-    }
-}
@@ -0,0 +1,175 @@
+package org.ledger.blockchain.store;
+
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.block.BlockHeader;
+import org.ledger.blockchain.block.BlockView;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.UTXO;
+import org.ledger.blockchain.transaction.UTXODelta;
+import org.ledger.blockchain.util.ConfigUtils;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of blocks, chainstate, indexes and chain metadata. The engine is chosen by
+ * {@code storage.engine}; each instance is an independent chain.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public interface StorageEngine extends AutoCloseable {
+
+    /**
+     * Opens the engine configured in {@code blockchain.properties}
+     *
+     * @return
+     */
+    static StorageEngine open() {
+        ConfigUtils config = ConfigUtils.getInstance();
+        String engine = config.getString("storage.engine");
+        switch (engine) {
+            case "rocksdb":
+                return new RocksDBStorage(new File(config.getString("storage.dir")));
+            case "memory":
+                return new MemoryStorage();
+            default:
+                throw new RuntimeException("Fail to open storage ! unknown storage engine ! storage.engine=" + engine);
+        }
+    }
+
+    /**
+     * Appends the block to the chain and applies its UTXO changes atomically
+     *
+     * @param block
+     * @param delta UTXO changes made by the block
+     */
+    void commitBlock(Block block, UTXODelta delta);
+
+    /**
+     * Removes the last block from the chain and reverts its UTXO changes
+     *
+     * @param block the last block
+     */
+    void disconnectBlock(Block block);
+
+    /**
+     * Replaces the whole chainstate, and the address index with it, by the given UTXOs
+     *
+     * @param utxos txId -> unspent outputs, spent outputs are null
+     */
+    void resetUTXOs(Map<String, TXOutput[]> utxos);
+
+    /**
+     * Rebuilds the transaction index from the blocks of the chain
+     */
+    void rebuildTxIndex();
+
+    /**
+     * @return empty for an empty chain
+     */
+    String getLastBlockHash();
+
+    /**
+     * @return -1 for an empty chain
+     */
+    long getTipHeight();
+
+    /**
+     * @param height
+     * @return null if there is no block at the height
+     */
+    String getBlockHash(long height);
+
+    /**
+     * Callers must not modify returned blocks
+     *
+     * @param blockHash
+     * @return
+     */
+    Block getBlock(String blockHash);
+
+    /**
+     * Wraps the view around the stored block, without building the block object graph
+     *
+     * @param blockHash
+     * @param view      reused, a new view if null
+     * @return the view
+     */
+    BlockView getBlockView(String blockHash, BlockView view);
+
+    /**
+     * Header of the block, also available once the block body is pruned
+     *
+     * @param blockHash
+     * @return
+     */
+    BlockHeader getBlockHeader(String blockHash);
+
+    /**
+     * @param txId
+     * @return null if the transaction is not indexed
+     */
+    TxLocation getTxLocation(byte[] txId);
+
+    /**
+     * @param txId
+     * @return null if the transaction has no unspent outputs
+     */
+    TXOutput[] getUTXOs(String txId);
+
+    /**
+     * Unspent outputs locked with the public key hash
+     *
+     * @param pubKeyHash
+     * @return
+     */
+    List<UTXO> getAddressUTXOs(byte[] pubKeyHash);
+
+    /**
+     * @return
+     */
+    boolean isTxIndexEnabled();
+
+    /**
+     * @return whether every unpruned block of the chain is in the transaction index
+     */
+    boolean isTxIndexComplete();
+
+    /**
+     * @return whether the address index matches the chainstate
+     */
+    boolean isAddressIndexComplete();
+
+    /**
+     * @return height of the lowest block whose body is kept, 0 when nothing is pruned
+     */
+    long getPruneHeight();
+
+    /**
+     * Opens a consistent point-in-time view of the chain. The view must be closed.
+     *
+     * @return
+     */
+    ReadView openReadView();
+
+    /**
+     * Writes the chainstate at the current tip to a snapshot file, see {@link UTXOSnapshot}
+     *
+     * @param file
+     * @return number of transactions with unspent outputs
+     */
+    long exportUTXOSnapshot(File file);
+
+    /**
+     * Loads a snapshot file into an empty store
+     *
+     * @param file
+     * @return number of transactions with unspent outputs
+     */
+    long importUTXOSnapshot(File file);
+
+    @Override
+    void close();
+}
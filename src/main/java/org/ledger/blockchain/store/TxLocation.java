@@ -0,0 +1,27 @@
+package org.ledger.blockchain.store;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Where a transaction is stored
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TxLocation {
+
+    /**
+     * Hash of the block containing the transaction
+     */
+    private String blockHash;
+    /**
+     * Position of the transaction in the block
+     */
+    private int position;
+
+}
@@ -0,0 +1,181 @@
+package org.ledger.blockchain.store;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * File format of a UTXO set snapshot. The file is written and read as a stream:
+ * <pre>
+ * header:  magic (4) + version (1) + tip block hash (32) + tip height (8)
+ * records: 1 (1) + txId (32) + length (4) + serialized unspent outputs, in txId order
+ * trailer: 0 (1) + record count (8) + SHA-256 of everything before it (32)
+ * </pre>
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Slf4j
+public class UTXOSnapshot {
+
+    private static final int MAGIC = 0x55545853;
+    private static final byte VERSION = 1;
+    private static final byte RECORD = 1;
+    private static final byte TRAILER = 0;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = Integer.BYTES + 1 + HASH_LENGTH + Long.BYTES;
+    private static final int RECORD_HEADER_LENGTH = 1 + HASH_LENGTH + Integer.BYTES;
+    private static final int TRAILER_LENGTH = 1 + Long.BYTES + HASH_LENGTH;
+
+    /**
+     * @return
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Fail to create digest ! ", e);
+        }
+    }
+
+    /**
+     * Streams records to a snapshot file. The trailer is written on close.
+     */
+    public static class Writer implements AutoCloseable {
+
+        private final MessageDigest digest = newDigest();
+        private final DigestOutputStream digestOut;
+        private final DataOutputStream out;
+        private long count;
+
+        /**
+         * @param file
+         * @param tipHash   raw hash of the last block the snapshot reflects
+         * @param tipHeight
+         */
+        public Writer(File file, byte[] tipHash, long tipHeight) throws IOException {
+            this.digestOut = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(file)), digest);
+            this.out = new DataOutputStream(digestOut);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.write(tipHash);
+            out.writeLong(tipHeight);
+        }
+
+        /**
+         * @param txId       raw transaction id
+         * @param utxosBytes serialized unspent outputs of the transaction
+         */
+        public void write(byte[] txId, byte[] utxosBytes) throws IOException {
+            out.writeByte(RECORD);
+            out.write(txId);
+            out.writeInt(utxosBytes.length);
+            out.write(utxosBytes);
+            count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(TRAILER);
+            out.writeLong(count);
+            out.flush();
+            digestOut.on(false);
+            out.write(digest.digest());
+            out.close();
+        }
+    }
+
+    /**
+     * Streams records from a snapshot file. The checksum is verified once the last record is read,
+     * so record lengths are checked against the rest of the file before anything is allocated.
+     */
+    public static class Reader implements AutoCloseable {
+
+        private final MessageDigest digest = newDigest();
+        private final DigestInputStream digestIn;
+        private final DataInputStream in;
+        @Getter
+        private final byte[] tipHash = new byte[HASH_LENGTH];
+        @Getter
+        private final long tipHeight;
+        @Getter
+        private byte[] txId;
+        @Getter
+        private byte[] utxosBytes;
+        private long count;
+        /**
+         * Bytes of the file after the last read field
+         */
+        private long remaining;
+
+        /**
+         * @param file
+         */
+        public Reader(File file) throws IOException {
+            this.digestIn = new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), digest);
+            this.in = new DataInputStream(digestIn);
+            this.remaining = file.length() - HEADER_LENGTH;
+            if (remaining < TRAILER_LENGTH || in.readInt() != MAGIC) {
+                throw new IOException("Not a UTXO snapshot ! file=" + file);
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported UTXO snapshot version ! version=" + version);
+            }
+            in.readFully(tipHash);
+            this.tipHeight = in.readLong();
+        }
+
+        /**
+         * Reads the next record
+         *
+         * @return false after the last record, once the trailer is verified
+         */
+        public boolean next() throws IOException {
+            byte type = in.readByte();
+            if (type == RECORD) {
+                txId = new byte[HASH_LENGTH];
+                in.readFully(txId);
+                int length = in.readInt();
+                remaining -= RECORD_HEADER_LENGTH;
+                if (length < 0 || length > remaining - TRAILER_LENGTH) {
+                    throw new IOException("Corrupt UTXO snapshot ! record length exceeds the file ! length=" + length);
+                }
+                utxosBytes = new byte[length];
+                in.readFully(utxosBytes);
+                remaining -= length;
+                count++;
+                return true;
+            }
+            if (type != TRAILER) {
+                throw new IOException("Corrupt UTXO snapshot ! unknown record type=" + type);
+            }
+            long expectedCount = in.readLong();
+            digestIn.on(false);
+            byte[] expectedDigest = new byte[HASH_LENGTH];
+            in.readFully(expectedDigest);
+            if (expectedCount != count || !Arrays.equals(expectedDigest, digest.digest())) {
+                throw new IOException("Corrupt UTXO snapshot ! checksum mismatch ! ");
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.ledger.blockchain.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * What a block changed in the UTXO set, so the block can be disconnected again. Entries created by
+ * the block itself are not listed, they are the block's own transactions.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BlockUndo {
+
+    /**
+     * txId -> unspent outputs of an earlier transaction before the block spent from it
+     */
+    private Map<String, TXOutput[]> spentUTXOs;
+
+}
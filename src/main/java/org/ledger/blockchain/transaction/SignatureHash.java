@@ -0,0 +1,92 @@
+package org.ledger.blockchain.transaction;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.ledger.blockchain.util.BinaryCodec;
+
+import java.security.MessageDigest;
+
+/**
+ * Messages the inputs of a transaction are signed over.
+ * <p>
+ * From {@link Transaction#SIGHASH_VERSION} on, the parts shared by all inputs are hashed once:
+ * <pre>
+ * hashPrevouts := sha256((txId:bytes txOutputIndex:svarint)*)
+ * hashOutputs  := sha256((value:svarint pubKeyHash:bytes)*)
+ * message      := sha256(version:uvarint hashPrevouts hashOutputs createTime:uvarint
+ *                        txId:bytes txOutputIndex:svarint prevValue:svarint prevPubKeyHash:bytes)
+ * </pre>
+ * so each input costs a fixed amount of hashing. The message also commits to the value of the
+ * spent output. Older versions hash the whole trimmed copy of the transaction for each input,
+ * with the pubKeyHash of the spent output in place of the pubKey of the signed input.
+ * <p>
+ * Thread-safe, inputs may be hashed concurrently.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class SignatureHash {
+
+    private final Transaction transaction;
+    /**
+     * Trimmed copy, for versions before {@link Transaction#SIGHASH_VERSION}
+     */
+    private final Transaction txCopy;
+    private final byte[] hashPrevouts;
+    private final byte[] hashOutputs;
+
+    /**
+     * @param transaction inputs and outputs must not change while signing or verifying
+     */
+    public SignatureHash(Transaction transaction) {
+        this.transaction = transaction;
+        if (transaction.getVersion() < Transaction.SIGHASH_VERSION) {
+            this.txCopy = transaction.trimmedCopy();
+            this.hashPrevouts = null;
+            this.hashOutputs = null;
+            return;
+        }
+        this.txCopy = null;
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        for (TXInput input : transaction.getInputs()) {
+            BinaryCodec.digestBytes(digest, input.getTxId());
+            BinaryCodec.digestUVarLong(digest, BinaryCodec.zigZag(input.getTxOutputIndex()));
+        }
+        this.hashPrevouts = digest.digest();
+        for (TXOutput output : transaction.getOutputs()) {
+            BinaryCodec.digestUVarLong(digest, BinaryCodec.zigZag(output.getValue()));
+            BinaryCodec.digestBytes(digest, output.getPubKeyHash());
+        }
+        this.hashOutputs = digest.digest();
+    }
+
+    /**
+     * @param inputIndex
+     * @param prevTxOutput output spent by the input
+     * @return message of the input
+     */
+    public byte[] hash(int inputIndex, TXOutput prevTxOutput) {
+        if (txCopy != null) {
+            // the copy is modified for each input
+            synchronized (txCopy) {
+                TXInput txInputCopy = txCopy.getInputs()[inputIndex];
+                txInputCopy.setPubKey(prevTxOutput.getPubKeyHash());
+                try {
+                    return txCopy.computeHash();
+                } finally {
+                    txInputCopy.setPubKey(null);
+                }
+            }
+        }
+        TXInput input = transaction.getInputs()[inputIndex];
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        BinaryCodec.digestUVarLong(digest, transaction.getVersion());
+        digest.update(hashPrevouts);
+        digest.update(hashOutputs);
+        BinaryCodec.digestUVarLong(digest, transaction.getCreateTime());
+        BinaryCodec.digestBytes(digest, input.getTxId());
+        BinaryCodec.digestUVarLong(digest, BinaryCodec.zigZag(input.getTxOutputIndex()));
+        BinaryCodec.digestUVarLong(digest, BinaryCodec.zigZag(prevTxOutput.getValue()));
+        BinaryCodec.digestBytes(digest, prevTxOutput.getPubKeyHash());
+        return digest.digest();
+    }
+}
@@ -1,8 +1,8 @@
 package org.ledger.blockchain.transaction;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
 import org.apache.commons.codec.binary.Hex;
@@ -10,23 +10,15 @@ import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPrivateKey;
-import org.bouncycastle.jce.ECNamedCurveTable;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.jce.spec.ECParameterSpec;
-import org.bouncycastle.jce.spec.ECPublicKeySpec;
-import org.bouncycastle.math.ec.ECPoint;
 import org.ledger.blockchain.block.Blockchain;
+import org.ledger.blockchain.util.BinaryCodec;
 import org.ledger.blockchain.util.BtcAddressUtils;
+import org.ledger.blockchain.util.EcdsaUtils;
 import org.ledger.blockchain.util.SerializeUtils;
 import org.ledger.blockchain.wallet.Wallet;
 import org.ledger.blockchain.wallet.WalletUtils;
 
-import java.math.BigInteger;
-import java.security.KeyFactory;
-import java.security.PublicKey;
-import java.security.Security;
-import java.security.Signature;
-import java.util.Arrays;
+import java.security.MessageDigest;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -36,13 +28,29 @@ import java.util.Map;
 * @date 2018/03/08
 */
 @Data
-@AllArgsConstructor
+@ToString(exclude = "cachedHash")
 @NoArgsConstructor
 @Slf4j
 public class Transaction {
 
     private static final int SUBSIDY = 10;
 
+    /**
+     * Transactions of older versions, hashed over their legacy Kryo encoding
+     */
+    public static final int LEGACY_VERSION = 0;
+    /**
+     * Hashed over the canonical binary format, see {@link BinaryCodec}
+     */
+    public static final int CANONICAL_VERSION = 1;
+    /**
+     * Inputs are signed over messages with the parts shared by all inputs hashed once, see
+     * {@link SignatureHash}
+     */
+    public static final int SIGHASH_VERSION = 2;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(DigestUtils::getSha256Digest);
+
     /**
      * Hash
      */
@@ -57,17 +65,81 @@ public class Transaction {
      * 
      */
     private long createTime;
+    /**
+     * Selects the encoding the transaction is hashed over. Transient, since the legacy encoding of
+     * older transactions has no version; it is written by the canonical format.
+     */
+    private transient int version;
+    /**
+     * Result of {@link #hash()}, cleared by the setters of the hashed fields and by signing
+     */
+    private transient volatile byte[] cachedHash;
+
+    /**
+     * @param txId
+     * @param inputs
+     * @param outputs
+     * @param createTime
+     * @param version
+     */
+    public Transaction(byte[] txId, TXInput[] inputs, TXOutput[] outputs, long createTime, int version) {
+        this.txId = txId;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.createTime = createTime;
+        this.version = version;
+    }
 
     /**
+     * Hash of the transaction with an empty txId, over the encoding of its version. Computed once;
+     * inputs and outputs must not be modified in place afterwards, and the returned array is
+     * shared.
      *
      * @return
      */
     public byte[] hash() {
-        // 
-        byte[] serializeBytes = SerializeUtils.serialize(this);
-        Transaction copyTx = (Transaction) SerializeUtils.deserialize(serializeBytes);
-        copyTx.setTxId(new byte[]{});
-        return DigestUtils.sha256(SerializeUtils.serialize(copyTx));
+        byte[] hash = cachedHash;
+        if (hash == null) {
+            hash = computeHash();
+            cachedHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * The canonical encoding is streamed into the digest. The legacy encoding writes a shared array
+     * as a back reference, so its copy keeps the arrays of this transaction as they are.
+     *
+     * @return
+     */
+    byte[] computeHash() {
+        if (version == LEGACY_VERSION) {
+            Transaction copyTx = new Transaction(new byte[]{}, this.getInputs(), this.getOutputs(), this.getCreateTime(), this.getVersion());
+            return DigestUtils.sha256(SerializeUtils.serializeLegacy(copyTx));
+        }
+        MessageDigest digest = SHA256.get();
+        BinaryCodec.digestTransaction(digest, this, ArrayUtils.EMPTY_BYTE_ARRAY);
+        return digest.digest();
+    }
+
+    public void setInputs(TXInput[] inputs) {
+        this.inputs = inputs;
+        this.cachedHash = null;
+    }
+
+    public void setOutputs(TXOutput[] outputs) {
+        this.outputs = outputs;
+        this.cachedHash = null;
+    }
+
+    public void setCreateTime(long createTime) {
+        this.createTime = createTime;
+        this.cachedHash = null;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+        this.cachedHash = null;
     }
 
     /**
@@ -87,7 +159,7 @@ public class Transaction {
         TXOutput txOutput = TXOutput.newTXOutput(SUBSIDY, to);
         // 
         Transaction tx = new Transaction(null, new TXInput[]{txInput},
-                new TXOutput[]{txOutput}, System.currentTimeMillis());
+                new TXOutput[]{txOutput}, System.currentTimeMillis(), SIGHASH_VERSION);
         // 
         tx.setTxId(tx.hash());
         return tx;
@@ -147,7 +219,7 @@ public class Transaction {
             txOutput = ArrayUtils.add(txOutput, TXOutput.newTXOutput((accumulated - amount), from));
         }
 
-        Transaction newTx = new Transaction(null, txInputs, txOutput, System.currentTimeMillis());
+        Transaction newTx = new Transaction(null, txInputs, txOutput, System.currentTimeMillis(), SIGHASH_VERSION);
         newTx.setTxId(newTx.hash());
 
         // 
@@ -175,7 +247,7 @@ public class Transaction {
             tmpTXOutputs[i] = new TXOutput(txOutput.getValue(), txOutput.getPubKeyHash());
         }
 
-        return new Transaction(this.getTxId(), tmpTXInputs, tmpTXOutputs, this.getCreateTime());
+        return new Transaction(this.getTxId(), tmpTXInputs, tmpTXOutputs, this.getCreateTime(), this.getVersion());
     }
 
 
@@ -197,86 +269,36 @@ public class Transaction {
         }
 
         // 
-        Transaction txCopy = this.trimmedCopy();
+        SignatureHash signatureHash = new SignatureHash(this);
 
-        Security.addProvider(new BouncyCastleProvider());
-        Signature ecdsaSign = Signature.getInstance("SHA256withECDSA", BouncyCastleProvider.PROVIDER_NAME);
-        ecdsaSign.initSign(privateKey);
-
-        for (int i = 0; i < txCopy.getInputs().length; i++) {
-            TXInput txInputCopy = txCopy.getInputs()[i];
+        for (int i = 0; i < this.getInputs().length; i++) {
+            TXInput txInput = this.getInputs()[i];
             // 
-            Transaction prevTx = prevTxMap.get(Hex.encodeHexString(txInputCopy.getTxId()));
+            Transaction prevTx = prevTxMap.get(Hex.encodeHexString(txInput.getTxId()));
             // 
-            TXOutput prevTxOutput = prevTx.getOutputs()[txInputCopy.getTxOutputIndex()];
-            txInputCopy.setPubKey(prevTxOutput.getPubKeyHash());
-            txInputCopy.setSignature(null);
-            // ID
-            txCopy.setTxId(txCopy.hash());
-            txInputCopy.setPubKey(null);
+            TXOutput prevTxOutput = prevTx.getOutputs()[txInput.getTxOutputIndex()];
 
             // 
-            ecdsaSign.update(txCopy.getTxId());
-            byte[] signature = ecdsaSign.sign();
+            byte[] signature = EcdsaUtils.sign(privateKey, signatureHash.hash(i, prevTxOutput));
 
             //
             // 
             this.getInputs()[i].setSignature(signature);
         }
+        this.cachedHash = null;
     }
+
     /**
+     * Checks the signature of one input. Inputs are independent, so they may be checked on
+     * different threads sharing the signature hash.
      *
-     * @param prevTxMap 
+     * @param inputIndex
+     * @param prevTxOutput  output spent by the input
+     * @param signatureHash of this transaction
      * @return
      */
-    public boolean verify(Map<String, Transaction> prevTxMap) throws Exception {
-        // coinbase 
-        if (this.isCoinbase()) {
-            return true;
-        }
-
-        // 
-        for (TXInput txInput : this.getInputs()) {
-            if (prevTxMap.get(Hex.encodeHexString(txInput.getTxId())) == null) {
-                throw new RuntimeException("ERROR: Previous transaction is not correct");
-            }
-        }
-
-        // 
-        Transaction txCopy = this.trimmedCopy();
-
-        Security.addProvider(new BouncyCastleProvider());
-        ECParameterSpec ecParameters = ECNamedCurveTable.getParameterSpec("secp256k1");
-        KeyFactory keyFactory = KeyFactory.getInstance("ECDSA", BouncyCastleProvider.PROVIDER_NAME);
-        Signature ecdsaVerify = Signature.getInstance("SHA256withECDSA", BouncyCastleProvider.PROVIDER_NAME);
-
-        for (int i = 0; i < this.getInputs().length; i++) {
-            TXInput txInput = this.getInputs()[i];
-            // TxID
-            Transaction prevTx = prevTxMap.get(Hex.encodeHexString(txInput.getTxId()));
-            // 
-            TXOutput prevTxOutput = prevTx.getOutputs()[txInput.getTxOutputIndex()];
-
-            TXInput txInputCopy = txCopy.getInputs()[i];
-            txInputCopy.setSignature(null);
-            txInputCopy.setPubKey(prevTxOutput.getPubKeyHash());
-            // ID
-            txCopy.setTxId(txCopy.hash());
-            txInputCopy.setPubKey(null);
-
-            //Key
-            BigInteger x = new BigInteger(1, Arrays.copyOfRange(txInput.getPubKey(), 1, 33));
-            BigInteger y = new BigInteger(1, Arrays.copyOfRange(txInput.getPubKey(), 33, 65));
-            ECPoint ecPoint = ecParameters.getCurve().createPoint(x, y);
-
-            ECPublicKeySpec keySpec = new ECPublicKeySpec(ecPoint, ecParameters);
-            PublicKey publicKey = keyFactory.generatePublic(keySpec);
-            ecdsaVerify.initVerify(publicKey);
-            ecdsaVerify.update(txCopy.getTxId());
-            if (!ecdsaVerify.verify(txInput.getSignature())) {
-                return false;
-            }
-        }
-        return true;
+    public boolean verifyInput(int inputIndex, TXOutput prevTxOutput, SignatureHash signatureHash) throws Exception {
+        TXInput txInput = this.getInputs()[inputIndex];
+        return EcdsaUtils.verify(txInput.getPubKey(), signatureHash.hash(inputIndex, prevTxOutput), txInput.getSignature());
     }
 }
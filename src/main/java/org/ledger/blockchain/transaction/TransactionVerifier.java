@@ -0,0 +1,175 @@
+package org.ledger.blockchain.transaction;
+
+import com.google.common.collect.Lists;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.commons.codec.binary.Hex;
+import org.ledger.blockchain.util.ConfigUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the input signatures of a batch of transactions, such as the transactions of a block, on
+ * a work-stealing pool. Inputs are independent, so each one is a task. Remaining tasks are
+ * skipped once an input fails, and the failing transaction and input are reported.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Slf4j
+public class TransactionVerifier {
+
+    private volatile static TransactionVerifier instance;
+
+    /**
+     * Verifier with {@code verify.threads} threads, 0 for one per core
+     *
+     * @return
+     */
+    public static TransactionVerifier getInstance() {
+        if (instance == null) {
+            synchronized (TransactionVerifier.class) {
+                if (instance == null) {
+                    int threads = ConfigUtils.getInstance().getInt("verify.threads");
+                    instance = new TransactionVerifier(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+                }
+            }
+        }
+        return instance;
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param threads
+     */
+    public TransactionVerifier(int threads) {
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * @param transactions
+     * @param prevTxMap    previous transactions spent by the inputs, by hex txId
+     * @return
+     */
+    public Result verify(Transaction[] transactions, Map<String, Transaction> prevTxMap) {
+        List<InputCheck> checks = Lists.newArrayList();
+        for (int txIndex = 0; txIndex < transactions.length; txIndex++) {
+            Transaction tx = transactions[txIndex];
+            if (tx.isCoinbase()) {
+                continue;
+            }
+            TXOutput[] prevTxOutputs = new TXOutput[tx.getInputs().length];
+            for (int inputIndex = 0; inputIndex < prevTxOutputs.length; inputIndex++) {
+                TXInput txInput = tx.getInputs()[inputIndex];
+                Transaction prevTx = prevTxMap.get(Hex.encodeHexString(txInput.getTxId()));
+                if (prevTx == null) {
+                    return Result.invalid(txIndex, tx, inputIndex, "previous transaction not found");
+                }
+                int txOutputIndex = txInput.getTxOutputIndex();
+                if (txOutputIndex < 0 || txOutputIndex >= prevTx.getOutputs().length || prevTx.getOutputs()[txOutputIndex] == null) {
+                    return Result.invalid(txIndex, tx, inputIndex, "previous output not found");
+                }
+                prevTxOutputs[inputIndex] = prevTx.getOutputs()[txOutputIndex];
+            }
+            SignatureHash signatureHash = new SignatureHash(tx);
+            for (int inputIndex = 0; inputIndex < prevTxOutputs.length; inputIndex++) {
+                checks.add(new InputCheck(txIndex, tx, inputIndex, prevTxOutputs[inputIndex], signatureHash));
+            }
+        }
+        if (checks.isEmpty()) {
+            return Result.VALID;
+        }
+        AtomicReference<Result> failure = new AtomicReference<>();
+        pool.invoke(new VerifyTask(checks, 0, checks.size(), failure));
+        return failure.get() == null ? Result.VALID : failure.get();
+    }
+
+    /**
+     * Outcome of a verification, with the first failure found
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Result {
+
+        static final Result VALID = new Result(true, -1, null, -1, null);
+
+        private boolean valid;
+        /**
+         * Position of the failing transaction in the batch
+         */
+        private int txIndex;
+        /**
+         * Hex txId of the failing transaction
+         */
+        private String txId;
+        private int inputIndex;
+        private String reason;
+
+        static Result invalid(int txIndex, Transaction tx, int inputIndex, String reason) {
+            return new Result(false, txIndex, Hex.encodeHexString(tx.getTxId()), inputIndex, reason);
+        }
+    }
+
+    /**
+     * One input to check
+     */
+    @AllArgsConstructor
+    private static class InputCheck {
+        private final int txIndex;
+        private final Transaction tx;
+        private final int inputIndex;
+        private final TXOutput prevTxOutput;
+        private final SignatureHash signatureHash;
+
+        /**
+         * @return null when the signature verifies
+         */
+        private Result run() {
+            try {
+                if (tx.verifyInput(inputIndex, prevTxOutput, signatureHash)) {
+                    return null;
+                }
+                return Result.invalid(txIndex, tx, inputIndex, "signature does not verify");
+            } catch (Exception e) {
+                log.warn("Fail to verify input ! txIndex={}, inputIndex={}", txIndex, inputIndex, e);
+                return Result.invalid(txIndex, tx, inputIndex, "fail to verify signature: " + e);
+            }
+        }
+    }
+
+    /**
+     * Splits the checks in halves down to single inputs
+     */
+    @AllArgsConstructor
+    private static class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<InputCheck> checks;
+        private final int from;
+        private final int to;
+        private final AtomicReference<Result> failure;
+
+        @Override
+        protected void compute() {
+            if (failure.get() != null) {
+                return;
+            }
+            if (to - from == 1) {
+                Result result = checks.get(from).run();
+                if (result != null) {
+                    failure.compareAndSet(null, result);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new VerifyTask(checks, from, middle, failure), new VerifyTask(checks, middle, to, failure));
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.ledger.blockchain.transaction;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.ArrayUtils;
+import org.ledger.blockchain.util.BinaryCodec;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Read-only flyweight over a transaction in the canonical binary format, see {@link BinaryCodec}.
+ * Fields are read from the bytes by offset; wrapping computes the offsets of the inputs and
+ * outputs only, into arrays the view keeps for the next transaction. Views are reused, so they
+ * must not be kept past the next {@code wrap}.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class TransactionView {
+
+    private ByteBuffer buffer;
+    /**
+     * Offset after the transaction
+     */
+    private int endOffset;
+    private int version;
+    /**
+     * Offset of the length prefix of the txId
+     */
+    private int txIdOffset;
+    private int inputCount;
+    private int[] inputOffsets = new int[4];
+    private int outputCount;
+    private int[] outputOffsets = new int[4];
+    private long createTime;
+
+    /**
+     * Offset of the next field while wrapping
+     */
+    private int cursor;
+
+    /**
+     * @param buffer holding the transaction, not modified
+     * @param offset of the transaction
+     * @return this view
+     */
+    public TransactionView wrap(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.cursor = offset;
+        this.version = (int) readUVarLong();
+        this.txIdOffset = cursor;
+        skipBytes();
+
+        inputCount = (int) readUVarLong();
+        inputOffsets = ensureCapacity(inputOffsets, inputCount);
+        for (int i = 0; i < inputCount; i++) {
+            inputOffsets[i] = cursor;
+            skipBytes();
+            readUVarLong();
+            skipBytes();
+            skipBytes();
+        }
+        outputCount = (int) readUVarLong();
+        outputOffsets = ensureCapacity(outputOffsets, outputCount);
+        for (int i = 0; i < outputCount; i++) {
+            outputOffsets[i] = cursor;
+            readUVarLong();
+            skipBytes();
+        }
+        createTime = readUVarLong();
+        endOffset = cursor;
+        return this;
+    }
+
+    /**
+     * Same as {@link Transaction#hash()}. The canonical encoding after the txId is fed to the
+     * digest from the buffer. Legacy transactions are hashed over their Kryo encoding, which
+     * depends on the arrays they share and can not be rebuilt from this format, so hash the
+     * decoded Kryo record instead.
+     *
+     * @return
+     */
+    public byte[] hash() {
+        if (version == Transaction.LEGACY_VERSION) {
+            throw new RuntimeException("Fail to hash transaction ! legacy transactions are hashed over their Kryo record ! ");
+        }
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        BinaryCodec.digestUVarLong(digest, version);
+        BinaryCodec.digestBytes(digest, ArrayUtils.EMPTY_BYTE_ARRAY);
+        ByteBuffer rest = buffer.duplicate();
+        rest.limit(endOffset).position(skipBytesAt(txIdOffset));
+        digest.update(rest);
+        return digest.digest();
+    }
+
+    /**
+     * @return
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return
+     */
+    public long getCreateTime() {
+        return createTime;
+    }
+
+    /**
+     * @return
+     */
+    public byte[] getTxId() {
+        return bytesAt(txIdOffset);
+    }
+
+    /**
+     * @return hex txId, as used for chainstate keys
+     */
+    public String getTxIdHex() {
+        return Hex.encodeHexString(getTxId());
+    }
+
+    /**
+     * Compares in place
+     *
+     * @param txId
+     * @return
+     */
+    public boolean txIdEquals(byte[] txId) {
+        return bytesEqual(txIdOffset, txId);
+    }
+
+    /**
+     * @return
+     */
+    public boolean isCoinbase() {
+        return inputCount == 1 && lengthAt(inputOffsets[0]) == 1 && getInputTxOutputIndex(0) == -1;
+    }
+
+    /**
+     * @return
+     */
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * @param index
+     * @return txId of the transaction whose output the input spends
+     */
+    public byte[] getInputTxId(int index) {
+        return bytesAt(inputOffsets[checkIndex(index, inputCount)]);
+    }
+
+    /**
+     * @param index
+     * @return
+     */
+    public int getInputTxOutputIndex(int index) {
+        int offset = inputOffsets[checkIndex(index, inputCount)];
+        offset = skipBytesAt(offset);
+        return (int) BinaryCodec.unZigZag(BinaryCodec.getUVarLong(buffer, offset));
+    }
+
+    /**
+     * @return
+     */
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * @param index
+     * @return
+     */
+    public int getOutputValue(int index) {
+        return (int) BinaryCodec.unZigZag(BinaryCodec.getUVarLong(buffer, outputOffsets[checkIndex(index, outputCount)]));
+    }
+
+    /**
+     * Compares in place
+     *
+     * @param index
+     * @param pubKeyHash
+     * @return
+     */
+    public boolean isOutputLockedWithKey(int index, byte[] pubKeyHash) {
+        int offset = outputOffsets[checkIndex(index, outputCount)];
+        return bytesEqual(offset + BinaryCodec.sizeOfUVarLong(BinaryCodec.getUVarLong(buffer, offset)), pubKeyHash);
+    }
+
+    /**
+     * @param index
+     * @return a new output
+     */
+    public TXOutput getOutput(int index) {
+        int offset = outputOffsets[checkIndex(index, outputCount)];
+        long value = BinaryCodec.getUVarLong(buffer, offset);
+        return new TXOutput((int) BinaryCodec.unZigZag(value), bytesAt(offset + BinaryCodec.sizeOfUVarLong(value)));
+    }
+
+    /**
+     * @return
+     */
+    private long readUVarLong() {
+        long value = BinaryCodec.getUVarLong(buffer, cursor);
+        cursor += BinaryCodec.sizeOfUVarLong(value);
+        return value;
+    }
+
+    /**
+     */
+    private void skipBytes() {
+        cursor = skipBytesAt(cursor);
+    }
+
+    /**
+     * @param offset of a length-prefixed array
+     * @return offset after the array
+     */
+    private int skipBytesAt(int offset) {
+        long length = BinaryCodec.getUVarLong(buffer, offset);
+        int end = offset + BinaryCodec.sizeOfUVarLong(length) + (length == 0 ? 0 : (int) length - 1);
+        if (end > buffer.limit()) {
+            throw new IllegalArgumentException("Fail to read transaction ! array exceeds the buffer ! offset=" + offset);
+        }
+        return end;
+    }
+
+    /**
+     * @param offset of a length-prefixed array
+     * @return length + 1, 0 for null
+     */
+    private int lengthAt(int offset) {
+        return (int) BinaryCodec.getUVarLong(buffer, offset);
+    }
+
+    /**
+     * @param offset of a length-prefixed array
+     * @return a copy, null for a null array
+     */
+    private byte[] bytesAt(int offset) {
+        int length = lengthAt(offset);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        int start = offset + BinaryCodec.sizeOfUVarLong(length);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param offset of a length-prefixed array
+     * @param bytes
+     * @return
+     */
+    private boolean bytesEqual(int offset, byte[] bytes) {
+        int length = lengthAt(offset);
+        if (bytes == null || length == 0) {
+            return bytes == null && length == 0;
+        }
+        if (length - 1 != bytes.length) {
+            return false;
+        }
+        int start = offset + BinaryCodec.sizeOfUVarLong(length);
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param index
+     * @param count
+     * @return
+     */
+    private static int checkIndex(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index=" + index + ", count=" + count);
+        }
+        return index;
+    }
+
+    /**
+     * @param offsets
+     * @param count
+     * @return
+     */
+    private static int[] ensureCapacity(int[] offsets, int count) {
+        return offsets.length >= count ? offsets : Arrays.copyOf(offsets, Math.max(count, offsets.length * 2));
+    }
+}
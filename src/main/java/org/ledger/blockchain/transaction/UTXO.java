@@ -0,0 +1,30 @@
+package org.ledger.blockchain.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * An unspent transaction output and where it is
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UTXO {
+
+    /**
+     * Hex ID of the transaction that created the output
+     */
+    private String txId;
+    /**
+     * Index of the output in the transaction
+     */
+    private int outIndex;
+    /**
+     */
+    private TXOutput output;
+
+}
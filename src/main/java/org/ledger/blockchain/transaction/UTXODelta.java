@@ -0,0 +1,30 @@
+package org.ledger.blockchain.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Changes a block makes to the UTXO set
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UTXODelta {
+
+    /**
+     * txId -> unspent outputs of the transaction after the block
+     */
+    private Map<String, TXOutput[]> putUTXOs;
+    /**
+     * txIds whose outputs are all spent by the block
+     */
+    private Set<String> deletedTxIds;
+
+}
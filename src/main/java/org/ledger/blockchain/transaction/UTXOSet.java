@@ -1,6 +1,7 @@
 package org.ledger.blockchain.transaction;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.Synchronized;
@@ -10,10 +11,11 @@ import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang3.ArrayUtils;
 import org.ledger.blockchain.block.Block;
 import org.ledger.blockchain.block.Blockchain;
-import org.ledger.blockchain.store.BlockChainDBUtils;
-import org.ledger.blockchain.util.SerializeUtils;
+import org.ledger.blockchain.store.ReadView;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
 *
@@ -29,35 +31,33 @@ public class UTXOSet {
     private Blockchain blockchain;
 
     /**
+     * Coin selection over the address index, so the cost depends on the number of outputs the
+     * address owns rather than on the size of the UTXO set. Read from a view, so a block committed
+     * meanwhile does not mix into the selection.
      *
      * @param pubKeyHash Hash
      * @param amount   
      */
     public SpendableOutputResult findSpendableOutputs(byte[] pubKeyHash, int amount) {
+        List<UTXO> addressUTXOs;
+        try (ReadView view = blockchain.getStorage().openReadView()) {
+            addressUTXOs = view.getAddressUTXOs(pubKeyHash);
+        }
         Map<String, int[]> unspentOuts = Maps.newHashMap();
         int accumulated = 0;
-        Map<String, byte[]> chainstateBucket = BlockChainDBUtils.getInstance().getChainstateBucket();
-        for (Map.Entry<String, byte[]> entry : chainstateBucket.entrySet()) {
-            String txId = entry.getKey();
-            TXOutput[] txOutputs = (TXOutput[]) SerializeUtils.deserialize(entry.getValue());
-
-            for (int outId = 0; outId < txOutputs.length; outId++) {
-                TXOutput txOutput = txOutputs[outId];
-                if (txOutput.isLockedWithKey(pubKeyHash) && accumulated < amount) {
-                    accumulated += txOutput.getValue();
-
-                    int[] outIds = unspentOuts.get(txId);
-                    if (outIds == null) {
-                        outIds = new int[]{outId};
-                    } else {
-                        outIds = ArrayUtils.add(outIds, outId);
-                    }
-                    unspentOuts.put(txId, outIds);
-                    if (accumulated >= amount) {
-                        break;
-                    }
-                }
+        for (UTXO utxo : addressUTXOs) {
+            if (accumulated >= amount) {
+                break;
+            }
+            accumulated += utxo.getOutput().getValue();
+
+            int[] outIds = unspentOuts.get(utxo.getTxId());
+            if (outIds == null) {
+                outIds = new int[]{utxo.getOutIndex()};
+            } else {
+                outIds = ArrayUtils.add(outIds, utxo.getOutIndex());
             }
+            unspentOuts.put(utxo.getTxId(), outIds);
         }
         return new SpendableOutputResult(accumulated, unspentOuts);
     }
@@ -70,18 +70,13 @@ public class UTXOSet {
      * @return
      */
     public TXOutput[] findUTXOs(byte[] pubKeyHash) {
-        TXOutput[] utxos = {};
-        Map<String, byte[]> chainstateBucket = BlockChainDBUtils.getInstance().getChainstateBucket();
-        if (chainstateBucket.isEmpty()) {
-            return utxos;
+        List<UTXO> addressUTXOs;
+        try (ReadView view = blockchain.getStorage().openReadView()) {
+            addressUTXOs = view.getAddressUTXOs(pubKeyHash);
         }
-        for (byte[] value : chainstateBucket.values()) {
-            TXOutput[] txOutputs = (TXOutput[]) SerializeUtils.deserialize(value);
-            for (TXOutput txOutput : txOutputs) {
-                if (txOutput.isLockedWithKey(pubKeyHash)) {
-                    utxos = ArrayUtils.add(utxos, txOutput);
-                }
-            }
+        TXOutput[] utxos = new TXOutput[addressUTXOs.size()];
+        for (int i = 0; i < utxos.length; i++) {
+            utxos[i] = addressUTXOs.get(i).getOutput();
         }
         return utxos;
     }
@@ -93,61 +88,76 @@ public class UTXOSet {
     @Synchronized
     public void reIndex() {
         log.info("Start to reIndex UTXO set !");
-        BlockChainDBUtils.getInstance().cleanChainStateBucket();
         Map<String, TXOutput[]> allUTXOs = blockchain.findAllUTXOs();
-        for (Map.Entry<String, TXOutput[]> entry : allUTXOs.entrySet()) {
-            BlockChainDBUtils.getInstance().putUTXOs(entry.getKey(), entry.getValue());
-        }
+        blockchain.getStorage().resetUTXOs(allUTXOs);
         log.info("ReIndex UTXO set finished ! ");
     }
 
     /**
-     * 1）UTXO
-
+     * Computes the UTXO changes of the block without writing them. Outputs created earlier in the
+     * same block may be spent by later transactions of the block.
      *
      * @param tipBlock
+     * @return
      */
-    @Synchronized
-    public void update(Block tipBlock) {
+    public UTXODelta computeDelta(Block tipBlock) {
         if (tipBlock == null) {
-            log.error("Fail to update UTXO set ! tipBlock is null !");
-            throw new RuntimeException("Fail to update UTXO set ! ");
+            log.error("Fail to compute UTXO delta ! tipBlock is null !");
+            throw new RuntimeException("Fail to compute UTXO delta ! ");
         }
+        // txId -> remaining outputs, null when all of them are spent
+        Map<String, TXOutput[]> changed = Maps.newHashMap();
         for (Transaction transaction : tipBlock.getTransactions()) {
 
             // 
             if (!transaction.isCoinbase()) {
                 for (TXInput txInput : transaction.getInputs()) {
-                    // 
-                    TXOutput[] remainderUTXOs = {};
                     String txId = Hex.encodeHexString(txInput.getTxId());
-                    TXOutput[] txOutputs = BlockChainDBUtils.getInstance().getUTXOs(txId);
+                    TXOutput[] txOutputs = changed.containsKey(txId) ?
+                            changed.get(txId) : blockchain.getStorage().getUTXOs(txId);
 
-                    if (txOutputs == null) {
+                    if (txOutputs == null || txInput.getTxOutputIndex() >= txOutputs.length) {
                         continue;
                     }
 
-                    for (int outIndex = 0; outIndex < txOutputs.length; outIndex++) {
-                        if (outIndex != txInput.getTxOutputIndex()) {
-                            remainderUTXOs = ArrayUtils.add(remainderUTXOs, txOutputs[outIndex]);
-                        }
-                    }
+                    // spent outputs become null so the others keep their output index
+                    TXOutput[] remainderUTXOs = txOutputs.clone();
+                    remainderUTXOs[txInput.getTxOutputIndex()] = null;
 
                     // 
-                    if (remainderUTXOs.length == 0) {
-                        BlockChainDBUtils.getInstance().deleteUTXOs(txId);
-                    } else {
-                        BlockChainDBUtils.getInstance().putUTXOs(txId, remainderUTXOs);
-                    }
+                    changed.put(txId, isAllSpent(remainderUTXOs) ? null : remainderUTXOs);
                 }
             }
 
             //
             TXOutput[] txOutputs = transaction.getOutputs();
             String txId = Hex.encodeHexString(transaction.getTxId());
-            BlockChainDBUtils.getInstance().putUTXOs(txId, txOutputs);
+            changed.put(txId, txOutputs);
+        }
+
+        Map<String, TXOutput[]> putUTXOs = Maps.newHashMap();
+        Set<String> deletedTxIds = Sets.newHashSet();
+        for (Map.Entry<String, TXOutput[]> entry : changed.entrySet()) {
+            if (entry.getValue() == null) {
+                deletedTxIds.add(entry.getKey());
+            } else {
+                putUTXOs.put(entry.getKey(), entry.getValue());
+            }
         }
+        return new UTXODelta(putUTXOs, deletedTxIds);
+    }
 
+    /**
+     * @param txOutputs
+     * @return
+     */
+    private static boolean isAllSpent(TXOutput[] txOutputs) {
+        for (TXOutput txOutput : txOutputs) {
+            if (txOutput != null) {
+                return false;
+            }
+        }
+        return true;
     }
 
 
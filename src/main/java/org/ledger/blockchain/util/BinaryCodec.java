@@ -0,0 +1,567 @@
+package org.ledger.blockchain.util;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.block.BlockHeader;
+import org.ledger.blockchain.transaction.TXInput;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.Transaction;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Canonical binary format of blocks and transactions. It is the format blocks are stored in,
+ * transactions from {@link Transaction#CANONICAL_VERSION} on are hashed over, and any network transfer
+ * is to use, so the same bytes go through every layer. It does not depend on Java class layout.
+ * <pre>
+ * record      := MAGIC FORMAT_VERSION type:byte (block | blockHeader | transaction)
+ * block       := hash[32] prevBlockHash[32] timeStamp:uvarint nonce:uvarint
+ *                txCount:uvarint (txLength:uvarint transaction)*
+ * blockHeader := hash[32] prevBlockHash[32] merkleRoot[32] timeStamp:uvarint nonce:uvarint
+ * transaction := version:uvarint txId:bytes inputCount:uvarint input*
+ *                outputCount:uvarint output* createTime:uvarint
+ * input       := txId:bytes txOutputIndex:svarint signature:bytes pubKey:bytes
+ * output      := value:svarint pubKeyHash:bytes
+ * bytes       := uvarint(length + 1) byte[length], 0 for null
+ * </pre>
+ * uvarint is an unsigned LEB128 varint, svarint a zigzag encoded one. Block hashes are hex
+ * strings in memory and raw 32 bytes here. Transactions in a block are length-prefixed, so a
+ * reader can skip them.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class BinaryCodec {
+
+    /**
+     * First byte of a record. Kryo records start with {@link SerializeUtils#FORMAT_MARKER}, the 0xFF
+     * of older registered records, or a class id below 0x80.
+     */
+    public static final byte MAGIC = (byte) 0xFE;
+    public static final byte FORMAT_VERSION = 1;
+
+    public static final byte TYPE_BLOCK = 1;
+    public static final byte TYPE_BLOCK_HEADER = 2;
+    public static final byte TYPE_TRANSACTION = 3;
+
+    public static final int HASH_LENGTH = 32;
+    private static final int RECORD_HEADER_LENGTH = 3;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Transactions of {@link Transaction#LEGACY_VERSION} are hashed over an encoding that depends
+     * on which arrays they share, which this format does not keep, so they, and blocks of them,
+     * are left to the Kryo format. That format has no version, so a block can not mix them with
+     * newer transactions.
+     *
+     * @param object
+     * @return whether the object is stored in this format
+     */
+    public static boolean isEncodable(Object object) {
+        if (object instanceof Block) {
+            int legacyTransactions = 0;
+            Transaction[] transactions = ((Block) object).getTransactions();
+            for (Transaction transaction : transactions) {
+                if (transaction.getVersion() == Transaction.LEGACY_VERSION) {
+                    legacyTransactions++;
+                }
+            }
+            if (legacyTransactions > 0 && legacyTransactions < transactions.length) {
+                throw new IllegalArgumentException("Fail to encode block ! block mixes legacy and canonical transactions ! ");
+            }
+            return legacyTransactions == 0;
+        }
+        if (object instanceof Transaction) {
+            return ((Transaction) object).getVersion() != Transaction.LEGACY_VERSION;
+        }
+        return object instanceof BlockHeader;
+    }
+
+    /**
+     * @param buffer
+     * @return whether the remaining bytes start with a record
+     */
+    public static boolean isRecord(ByteBuffer buffer) {
+        return buffer.remaining() >= RECORD_HEADER_LENGTH && buffer.get(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * @param object a Block, BlockHeader or Transaction
+     * @return the record
+     */
+    public static byte[] encode(Object object) {
+        byte type;
+        int size;
+        if (object instanceof Block) {
+            type = TYPE_BLOCK;
+            size = sizeOf((Block) object);
+        } else if (object instanceof BlockHeader) {
+            type = TYPE_BLOCK_HEADER;
+            size = sizeOf((BlockHeader) object);
+        } else if (object instanceof Transaction) {
+            type = TYPE_TRANSACTION;
+            size = sizeOf((Transaction) object);
+        } else {
+            throw new IllegalArgumentException("Fail to encode ! unsupported type ! type=" + object.getClass().getName());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_LENGTH + size);
+        buffer.put(MAGIC).put(FORMAT_VERSION).put(type);
+        if (object instanceof Block) {
+            putBlock(buffer, (Block) object);
+        } else if (object instanceof BlockHeader) {
+            putBlockHeader(buffer, (BlockHeader) object);
+        } else {
+            putTransaction(buffer, (Transaction) object);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes the record at the position of the buffer, advancing it past the record
+     *
+     * @param buffer
+     * @return a Block, BlockHeader or Transaction
+     */
+    public static Object decode(ByteBuffer buffer) {
+        try {
+            byte type = getRecordType(buffer);
+            switch (type) {
+                case TYPE_BLOCK:
+                    return getBlock(buffer);
+                case TYPE_BLOCK_HEADER:
+                    return getBlockHeader(buffer);
+                case TYPE_TRANSACTION:
+                    return getTransaction(buffer);
+                default:
+                    throw new RuntimeException("Fail to decode record ! unknown type ! type=" + type);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new RuntimeException("Fail to decode record ! record is truncated or corrupt ! ", e);
+        }
+    }
+
+    /**
+     * Reads and checks the record header
+     *
+     * @param buffer
+     * @return the record type
+     */
+    public static byte getRecordType(ByteBuffer buffer) {
+        byte magic = buffer.get();
+        byte version = buffer.get();
+        if (magic != MAGIC || version != FORMAT_VERSION) {
+            throw new RuntimeException("Fail to decode record ! unsupported format ! magic=" + magic + ", version=" + version);
+        }
+        return buffer.get();
+    }
+
+    // ---- block ----
+
+    /**
+     * @param block
+     * @return
+     */
+    public static int sizeOf(Block block) {
+        int size = 2 * HASH_LENGTH + sizeOfUVarLong(block.getTimeStamp()) + sizeOfUVarLong(block.getNonce())
+                + sizeOfUVarLong(block.getTransactions().length);
+        for (Transaction transaction : block.getTransactions()) {
+            int txSize = sizeOf(transaction);
+            size += sizeOfUVarLong(txSize) + txSize;
+        }
+        return size;
+    }
+
+    /**
+     * @param buffer
+     * @param block
+     */
+    public static void putBlock(ByteBuffer buffer, Block block) {
+        putHash(buffer, block.getHash());
+        putHash(buffer, block.getPrevBlockHash());
+        putUVarLong(buffer, block.getTimeStamp());
+        putUVarLong(buffer, block.getNonce());
+        putUVarLong(buffer, block.getTransactions().length);
+        for (Transaction transaction : block.getTransactions()) {
+            putUVarLong(buffer, sizeOf(transaction));
+            putTransaction(buffer, transaction);
+        }
+    }
+
+    /**
+     * @param buffer
+     * @return
+     */
+    public static Block getBlock(ByteBuffer buffer) {
+        String hash = getHash(buffer);
+        String prevBlockHash = getHash(buffer);
+        long timeStamp = getUVarLong(buffer);
+        long nonce = getUVarLong(buffer);
+        Transaction[] transactions = new Transaction[getLength(buffer)];
+        for (int i = 0; i < transactions.length; i++) {
+            getLength(buffer);
+            transactions[i] = getTransaction(buffer);
+        }
+        return new Block(hash, prevBlockHash, transactions, timeStamp, nonce);
+    }
+
+    /**
+     * @param header
+     * @return
+     */
+    public static int sizeOf(BlockHeader header) {
+        return 3 * HASH_LENGTH + sizeOfUVarLong(header.getTimeStamp()) + sizeOfUVarLong(header.getNonce());
+    }
+
+    /**
+     * @param buffer
+     * @param header
+     */
+    public static void putBlockHeader(ByteBuffer buffer, BlockHeader header) {
+        putHash(buffer, header.getHash());
+        putHash(buffer, header.getPrevBlockHash());
+        putHash(buffer, header.getMerkleRoot());
+        putUVarLong(buffer, header.getTimeStamp());
+        putUVarLong(buffer, header.getNonce());
+    }
+
+    /**
+     * @param buffer
+     * @return
+     */
+    public static BlockHeader getBlockHeader(ByteBuffer buffer) {
+        String hash = getHash(buffer);
+        String prevBlockHash = getHash(buffer);
+        byte[] merkleRoot = new byte[HASH_LENGTH];
+        buffer.get(merkleRoot);
+        return new BlockHeader(hash, prevBlockHash, merkleRoot, getUVarLong(buffer), getUVarLong(buffer));
+    }
+
+    // ---- transaction ----
+
+    /**
+     * @param transaction
+     * @return
+     */
+    public static int sizeOf(Transaction transaction) {
+        int size = sizeOfUVarLong(transaction.getVersion()) + sizeOfBytes(transaction.getTxId())
+                + sizeOfUVarLong(transaction.getInputs().length) + sizeOfUVarLong(transaction.getOutputs().length)
+                + sizeOfUVarLong(transaction.getCreateTime());
+        for (TXInput input : transaction.getInputs()) {
+            size += sizeOf(input);
+        }
+        for (TXOutput output : transaction.getOutputs()) {
+            size += sizeOf(output);
+        }
+        return size;
+    }
+
+    /**
+     * @param buffer
+     * @param transaction
+     */
+    public static void putTransaction(ByteBuffer buffer, Transaction transaction) {
+        putUVarLong(buffer, transaction.getVersion());
+        putBytes(buffer, transaction.getTxId());
+        putUVarLong(buffer, transaction.getInputs().length);
+        for (TXInput input : transaction.getInputs()) {
+            putInput(buffer, input);
+        }
+        putUVarLong(buffer, transaction.getOutputs().length);
+        for (TXOutput output : transaction.getOutputs()) {
+            putOutput(buffer, output);
+        }
+        putUVarLong(buffer, transaction.getCreateTime());
+    }
+
+    /**
+     * @param buffer
+     * @return
+     */
+    public static Transaction getTransaction(ByteBuffer buffer) {
+        int version = getLength(buffer);
+        byte[] txId = getBytes(buffer);
+        TXInput[] inputs = new TXInput[getLength(buffer)];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = getInput(buffer);
+        }
+        TXOutput[] outputs = new TXOutput[getLength(buffer)];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = getOutput(buffer);
+        }
+        return new Transaction(txId, inputs, outputs, getUVarLong(buffer), version);
+    }
+
+    /**
+     * @param input
+     * @return
+     */
+    public static int sizeOf(TXInput input) {
+        return sizeOfBytes(input.getTxId()) + sizeOfUVarLong(zigZag(input.getTxOutputIndex()))
+                + sizeOfBytes(input.getSignature()) + sizeOfBytes(input.getPubKey());
+    }
+
+    /**
+     * @param buffer
+     * @param input
+     */
+    public static void putInput(ByteBuffer buffer, TXInput input) {
+        putBytes(buffer, input.getTxId());
+        putUVarLong(buffer, zigZag(input.getTxOutputIndex()));
+        putBytes(buffer, input.getSignature());
+        putBytes(buffer, input.getPubKey());
+    }
+
+    /**
+     * @param buffer
+     * @return
+     */
+    public static TXInput getInput(ByteBuffer buffer) {
+        byte[] txId = getBytes(buffer);
+        int txOutputIndex = (int) unZigZag(getUVarLong(buffer));
+        return new TXInput(txId, txOutputIndex, getBytes(buffer), getBytes(buffer));
+    }
+
+    /**
+     * @param output
+     * @return
+     */
+    public static int sizeOf(TXOutput output) {
+        return sizeOfUVarLong(zigZag(output.getValue())) + sizeOfBytes(output.getPubKeyHash());
+    }
+
+    /**
+     * @param buffer
+     * @param output
+     */
+    public static void putOutput(ByteBuffer buffer, TXOutput output) {
+        putUVarLong(buffer, zigZag(output.getValue()));
+        putBytes(buffer, output.getPubKeyHash());
+    }
+
+    /**
+     * @param buffer
+     * @return
+     */
+    public static TXOutput getOutput(ByteBuffer buffer) {
+        int value = (int) unZigZag(getUVarLong(buffer));
+        return new TXOutput(value, getBytes(buffer));
+    }
+
+    // ---- digests ----
+
+    /**
+     * Feeds the encoding of the transaction to the digest, without encoding it into a buffer
+     *
+     * @param digest
+     * @param transaction
+     * @param txId        written in place of the txId of the transaction
+     */
+    public static void digestTransaction(MessageDigest digest, Transaction transaction, byte[] txId) {
+        digestUVarLong(digest, transaction.getVersion());
+        digestBytes(digest, txId);
+        digestUVarLong(digest, transaction.getInputs().length);
+        for (TXInput input : transaction.getInputs()) {
+            digestBytes(digest, input.getTxId());
+            digestUVarLong(digest, zigZag(input.getTxOutputIndex()));
+            digestBytes(digest, input.getSignature());
+            digestBytes(digest, input.getPubKey());
+        }
+        digestUVarLong(digest, transaction.getOutputs().length);
+        for (TXOutput output : transaction.getOutputs()) {
+            digestUVarLong(digest, zigZag(output.getValue()));
+            digestBytes(digest, output.getPubKeyHash());
+        }
+        digestUVarLong(digest, transaction.getCreateTime());
+    }
+
+    /**
+     * @param digest
+     * @param value
+     */
+    public static void digestUVarLong(MessageDigest digest, long value) {
+        while ((value & ~0x7FL) != 0) {
+            digest.update((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        digest.update((byte) value);
+    }
+
+    /**
+     * @param digest
+     * @param bytes
+     */
+    public static void digestBytes(MessageDigest digest, byte[] bytes) {
+        if (bytes == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        digestUVarLong(digest, bytes.length + 1L);
+        digest.update(bytes);
+    }
+
+    // ---- primitives ----
+
+    /**
+     * @param value
+     * @return
+     */
+    public static int sizeOfUVarLong(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @param buffer
+     * @param value
+     */
+    public static void putUVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * @param buffer
+     * @return
+     */
+    public static long getUVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Fail to decode varint ! varint is too long ! ");
+    }
+
+    /**
+     * Absolute read for flyweight views. The encoder writes minimal varints, so the varint takes
+     * {@link #sizeOfUVarLong} bytes of the value.
+     *
+     * @param buffer
+     * @param index
+     * @return
+     */
+    public static long getUVarLong(ByteBuffer buffer, int index) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get(index++);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Fail to decode varint ! varint is too long ! ");
+    }
+
+    /**
+     * A count or length, which must fit an int
+     *
+     * @param buffer
+     * @return
+     */
+    public static int getLength(ByteBuffer buffer) {
+        long length = getUVarLong(buffer);
+        if (length < 0 || length > buffer.capacity()) {
+            throw new IllegalArgumentException("Fail to decode length ! length=" + length);
+        }
+        return (int) length;
+    }
+
+    /**
+     * @param value
+     * @return
+     */
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * @param value
+     * @return
+     */
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @param bytes
+     * @return
+     */
+    public static int sizeOfBytes(byte[] bytes) {
+        return bytes == null ? 1 : sizeOfUVarLong(bytes.length + 1L) + bytes.length;
+    }
+
+    /**
+     * @param buffer
+     * @param bytes nullable
+     */
+    public static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.put((byte) 0);
+            return;
+        }
+        putUVarLong(buffer, bytes.length + 1L);
+        buffer.put(bytes);
+    }
+
+    /**
+     * @param buffer
+     * @return null for a null array
+     */
+    public static byte[] getBytes(ByteBuffer buffer) {
+        int length = getLength(buffer);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param buffer
+     * @param hash 64 hex characters
+     */
+    public static void putHash(ByteBuffer buffer, String hash) {
+        try {
+            putHash(buffer, Hex.decodeHex(hash));
+        } catch (DecoderException e) {
+            throw new IllegalArgumentException("Fail to encode hash ! hash=" + hash, e);
+        }
+    }
+
+    /**
+     * @param buffer
+     * @param hash
+     */
+    public static void putHash(ByteBuffer buffer, byte[] hash) {
+        if (hash == null || hash.length != HASH_LENGTH) {
+            throw new IllegalArgumentException("Fail to encode hash ! hash must be " + HASH_LENGTH + " bytes ! ");
+        }
+        buffer.put(hash);
+    }
+
+    /**
+     * @param buffer
+     * @return 64 hex characters
+     */
+    public static String getHash(ByteBuffer buffer) {
+        byte[] hash = new byte[HASH_LENGTH];
+        buffer.get(hash);
+        return Hex.encodeHexString(hash);
+    }
+}
@@ -43,4 +43,14 @@ public class ByteUtils {
         return ByteBuffer.allocate(Long.BYTES).putLong(val).array();
     }
 
+    /**
+     * byte[] long
+     *
+     * @param bytes
+     * @return
+     */
+    public static long toLong(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
 }
@@ -0,0 +1,127 @@
+package org.ledger.blockchain.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Settings from {@code blockchain.properties}. Defaults are bundled on the classpath and can be
+ * overridden by a file of the same name in the working directory, or by a system property.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+@Slf4j
+public class ConfigUtils {
+
+    /**
+     */
+    private static final String CONFIG_FILE = "blockchain.properties";
+
+    private volatile static ConfigUtils instance;
+
+    public static ConfigUtils getInstance() {
+        if (instance == null) {
+            synchronized (ConfigUtils.class) {
+                if (instance == null) {
+                    instance = new ConfigUtils();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private Properties properties;
+
+    private ConfigUtils() {
+        initProperties();
+    }
+
+    /**
+     */
+    private void initProperties() {
+        properties = new Properties();
+        try (InputStream defaults = ConfigUtils.class.getClassLoader().getResourceAsStream(CONFIG_FILE)) {
+            if (defaults != null) {
+                properties.load(defaults);
+            }
+            File file = new File(CONFIG_FILE);
+            if (file.exists()) {
+                try (InputStream overrides = new FileInputStream(file)) {
+                    properties.load(overrides);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Fail to load config ! ", e);
+            throw new RuntimeException("Fail to load config ! ", e);
+        }
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    public String getString(String key) {
+        String value = System.getProperty(key, properties.getProperty(key));
+        if (value == null) {
+            throw new RuntimeException("Fail to get config ! key=" + key);
+        }
+        return value.trim();
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    public int getInt(String key) {
+        return Integer.parseInt(getString(key));
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    public long getLong(String key) {
+        return Long.parseLong(getString(key));
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    public boolean getBoolean(String key) {
+        return Boolean.parseBoolean(getString(key));
+    }
+
+    /**
+     * Byte size with an optional KB, MB or GB suffix, e.g. {@code 64MB}
+     *
+     * @param key
+     * @return
+     */
+    public long getSize(String key) {
+        String value = StringUtils.upperCase(getString(key));
+        long unit = 1;
+        if (value.endsWith("KB")) {
+            unit = 1L << 10;
+        } else if (value.endsWith("MB")) {
+            unit = 1L << 20;
+        } else if (value.endsWith("GB")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) {
+            value = value.substring(0, value.length() - 2).trim();
+        }
+        try {
+            return Long.parseLong(value) * unit;
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Fail to parse size config ! key=" + key + ", value=" + value, e);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.ledger.blockchain.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECParameterSpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.Arrays;
+
+/**
+ * SHA256withECDSA over secp256k1 with the crypto contexts set up once: the provider and curve
+ * parameters are shared, {@link Signature} and {@link KeyFactory} instances are kept per thread.
+ * <p>
+ * Decoded public keys are cached by their bytes, bounded by {@code verify.keyCacheSize}. The
+ * curve point of a cached key keeps the window NAF table BouncyCastle precomputes on its first
+ * verification, so the table of a key that keeps showing up is built once.
+ * <p>
+ * Successful verifications are remembered, bounded by {@code verify.signatureCacheSize}, so an
+ * input checked again, for example when a block is validated after its transactions were admitted,
+ * skips the curve math. Entries are keyed by a salted hash of the message, public key and signature;
+ * the salt is random per process, so colliding entries can not be prepared in advance.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class EcdsaUtils {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+
+    private static final Provider PROVIDER = new BouncyCastleProvider();
+
+    private static final ECParameterSpec SECP256K1 = ECNamedCurveTable.getParameterSpec("secp256k1");
+
+    private static final ThreadLocal<Signature> SIGNATURE = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance(SIGNATURE_ALGORITHM, PROVIDER);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Fail to create signature ! ", e);
+        }
+    });
+
+    private static final ThreadLocal<KeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance("ECDSA", PROVIDER);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Fail to create key factory ! ", e);
+        }
+    });
+
+    /**
+     * Uncompressed public key bytes, copied on insert, to decoded keys
+     */
+    private static final Cache<ByteBuffer, PublicKey> PUBLIC_KEYS = CacheBuilder.newBuilder()
+            .maximumSize(ConfigUtils.getInstance().getLong("verify.keyCacheSize"))
+            .recordStats()
+            .build();
+
+    /**
+     * Salted hashes of verified (message, public key, signature) triples
+     */
+    private static final Cache<ByteBuffer, Boolean> VERIFIED_SIGNATURES = CacheBuilder.newBuilder()
+            .maximumSize(ConfigUtils.getInstance().getLong("verify.signatureCacheSize"))
+            .recordStats()
+            .build();
+
+    private static final byte[] SIGNATURE_CACHE_SALT = new byte[32];
+
+    static {
+        new SecureRandom().nextBytes(SIGNATURE_CACHE_SALT);
+    }
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(DigestUtils::getSha256Digest);
+
+    private EcdsaUtils() {
+    }
+
+    /**
+     * @param privateKey
+     * @param message
+     * @return DER encoded signature
+     */
+    public static byte[] sign(PrivateKey privateKey, byte[] message) throws GeneralSecurityException {
+        Signature signature = SIGNATURE.get();
+        signature.initSign(privateKey);
+        signature.update(message);
+        return signature.sign();
+    }
+
+    /**
+     * @param pubKey    uncompressed public key, 0x04 x y
+     * @param message
+     * @param signature DER encoded signature
+     * @return
+     */
+    public static boolean verify(byte[] pubKey, byte[] message, byte[] signature) throws GeneralSecurityException {
+        ByteBuffer entry = signatureCacheEntry(pubKey, message, signature);
+        if (VERIFIED_SIGNATURES.getIfPresent(entry) != null) {
+            return true;
+        }
+        Signature ecdsaVerify = SIGNATURE.get();
+        ecdsaVerify.initVerify(getPublicKey(pubKey));
+        ecdsaVerify.update(message);
+        if (!ecdsaVerify.verify(signature)) {
+            return false;
+        }
+        VERIFIED_SIGNATURES.put(entry, Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * @param pubKey uncompressed public key, 0x04 x y
+     * @return
+     */
+    public static PublicKey getPublicKey(byte[] pubKey) throws GeneralSecurityException {
+        PublicKey publicKey = PUBLIC_KEYS.getIfPresent(ByteBuffer.wrap(pubKey));
+        if (publicKey == null) {
+            publicKey = decodePublicKey(pubKey);
+            PUBLIC_KEYS.put(ByteBuffer.wrap(pubKey.clone()), publicKey);
+        }
+        return publicKey;
+    }
+
+    /**
+     * Hit, miss and eviction counters of the public key cache
+     *
+     * @return
+     */
+    public static CacheStats getPublicKeyCacheStats() {
+        return PUBLIC_KEYS.stats();
+    }
+
+    /**
+     * Hit, miss and eviction counters of the verified signature cache
+     *
+     * @return
+     */
+    public static CacheStats getSignatureCacheStats() {
+        return VERIFIED_SIGNATURES.stats();
+    }
+
+    /**
+     * Fields are length-prefixed, so different triples can not concatenate to the same bytes
+     *
+     * @param pubKey
+     * @param message
+     * @param signature
+     * @return
+     */
+    private static ByteBuffer signatureCacheEntry(byte[] pubKey, byte[] message, byte[] signature) {
+        MessageDigest digest = SHA256.get();
+        digest.update(SIGNATURE_CACHE_SALT);
+        BinaryCodec.digestBytes(digest, message);
+        BinaryCodec.digestBytes(digest, pubKey);
+        BinaryCodec.digestBytes(digest, signature);
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    /**
+     * @param pubKey
+     * @return
+     */
+    private static PublicKey decodePublicKey(byte[] pubKey) throws GeneralSecurityException {
+        BigInteger x = new BigInteger(1, Arrays.copyOfRange(pubKey, 1, 33));
+        BigInteger y = new BigInteger(1, Arrays.copyOfRange(pubKey, 33, 65));
+        ECPoint ecPoint = SECP256K1.getCurve().createPoint(x, y);
+        return KEY_FACTORY.get().generatePublic(new ECPublicKeySpec(ecPoint, SECP256K1));
+    }
+}
@@ -0,0 +1,234 @@
+package org.ledger.blockchain.util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.block.BlockHeader;
+import org.ledger.blockchain.transaction.BlockUndo;
+import org.ledger.blockchain.transaction.TXInput;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.Transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hand-written serializers of the stored classes. The registration ids and the field order are
+ * the schema of the stored records: never reuse or renumber an id, add new classes with new ids.
+ * <p>
+ * References stay on. Arrays shared in memory, such as the txId of inputs spending outputs of
+ * the same transaction, must come back shared, because the legacy encoding that transaction
+ * hashes are computed over writes a shared array as a back reference.
+ * <p>
+ * Blocks, block headers and transactions are written in the canonical format of
+ * {@link BinaryCodec} now; their serializers stay to read the records written before.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+class KryoSerializers {
+
+    private KryoSerializers() {
+    }
+
+    /**
+     * @param kryo
+     */
+    static void register(Kryo kryo) {
+        kryo.setRegistrationRequired(true);
+        kryo.setReferences(true);
+        kryo.register(byte[].class, 20);
+        kryo.register(TXOutput.class, new TXOutputSerializer(), 21);
+        kryo.register(TXOutput[].class, new TXOutputArraySerializer(), 22);
+        kryo.register(TXInput.class, new TXInputSerializer(), 23);
+        kryo.register(Transaction.class, new TransactionSerializer(), 24);
+        kryo.register(Block.class, new BlockSerializer(), 25);
+        kryo.register(BlockHeader.class, new BlockHeaderSerializer(), 26);
+        kryo.register(BlockUndo.class, new BlockUndoSerializer(), 27);
+    }
+
+    /**
+     * Reference, then length + 1 and the bytes for a new array
+     *
+     * @param kryo
+     * @param output
+     * @param bytes
+     */
+    private static void writeBytes(Kryo kryo, Output output, byte[] bytes) {
+        kryo.writeObjectOrNull(output, bytes, byte[].class);
+    }
+
+    /**
+     * @param kryo
+     * @param input
+     * @return
+     */
+    private static byte[] readBytes(Kryo kryo, Input input) {
+        return kryo.readObjectOrNull(input, byte[].class);
+    }
+
+    /**
+     * value, pubKeyHash
+     */
+    static class TXOutputSerializer extends Serializer<TXOutput> {
+
+        @Override
+        public void write(Kryo kryo, Output output, TXOutput txOutput) {
+            output.writeVarInt(txOutput.getValue(), false);
+            writeBytes(kryo, output, txOutput.getPubKeyHash());
+        }
+
+        @Override
+        public TXOutput read(Kryo kryo, Input input, Class<TXOutput> type) {
+            return new TXOutput(input.readVarInt(false), readBytes(kryo, input));
+        }
+    }
+
+    /**
+     * Length + 1, then a flag and the output for each element. Spent outputs are null.
+     */
+    static class TXOutputArraySerializer extends Serializer<TXOutput[]> {
+
+        @Override
+        public void write(Kryo kryo, Output output, TXOutput[] txOutputs) {
+            output.writeVarInt(txOutputs.length + 1, true);
+            for (TXOutput txOutput : txOutputs) {
+                kryo.writeObjectOrNull(output, txOutput, TXOutput.class);
+            }
+        }
+
+        @Override
+        public TXOutput[] read(Kryo kryo, Input input, Class<TXOutput[]> type) {
+            TXOutput[] txOutputs = new TXOutput[input.readVarInt(true) - 1];
+            for (int i = 0; i < txOutputs.length; i++) {
+                txOutputs[i] = kryo.readObjectOrNull(input, TXOutput.class);
+            }
+            return txOutputs;
+        }
+    }
+
+    /**
+     * txId, txOutputIndex, signature, pubKey
+     */
+    static class TXInputSerializer extends Serializer<TXInput> {
+
+        @Override
+        public void write(Kryo kryo, Output output, TXInput txInput) {
+            writeBytes(kryo, output, txInput.getTxId());
+            output.writeVarInt(txInput.getTxOutputIndex(), false);
+            writeBytes(kryo, output, txInput.getSignature());
+            writeBytes(kryo, output, txInput.getPubKey());
+        }
+
+        @Override
+        public TXInput read(Kryo kryo, Input input, Class<TXInput> type) {
+            return new TXInput(readBytes(kryo, input), input.readVarInt(false), readBytes(kryo, input), readBytes(kryo, input));
+        }
+    }
+
+    /**
+     * txId, inputs, outputs, createTime
+     */
+    static class TransactionSerializer extends Serializer<Transaction> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Transaction transaction) {
+            writeBytes(kryo, output, transaction.getTxId());
+            output.writeVarInt(transaction.getInputs().length, true);
+            for (TXInput txInput : transaction.getInputs()) {
+                kryo.writeObject(output, txInput);
+            }
+            kryo.writeObject(output, transaction.getOutputs());
+            output.writeVarLong(transaction.getCreateTime(), true);
+        }
+
+        @Override
+        public Transaction read(Kryo kryo, Input input, Class<Transaction> type) {
+            byte[] txId = readBytes(kryo, input);
+            TXInput[] inputs = new TXInput[input.readVarInt(true)];
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = kryo.readObject(input, TXInput.class);
+            }
+            TXOutput[] outputs = kryo.readObject(input, TXOutput[].class);
+            return new Transaction(txId, inputs, outputs, input.readVarLong(true), Transaction.LEGACY_VERSION);
+        }
+    }
+
+    /**
+     * hash, prevBlockHash, transactions, timeStamp, nonce
+     */
+    static class BlockSerializer extends Serializer<Block> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Block block) {
+            output.writeString(block.getHash());
+            output.writeString(block.getPrevBlockHash());
+            output.writeVarInt(block.getTransactions().length, true);
+            for (Transaction transaction : block.getTransactions()) {
+                kryo.writeObject(output, transaction);
+            }
+            output.writeVarLong(block.getTimeStamp(), true);
+            output.writeVarLong(block.getNonce(), true);
+        }
+
+        @Override
+        public Block read(Kryo kryo, Input input, Class<Block> type) {
+            String hash = input.readString();
+            String prevBlockHash = input.readString();
+            Transaction[] transactions = new Transaction[input.readVarInt(true)];
+            for (int i = 0; i < transactions.length; i++) {
+                transactions[i] = kryo.readObject(input, Transaction.class);
+            }
+            return new Block(hash, prevBlockHash, transactions, input.readVarLong(true), input.readVarLong(true));
+        }
+    }
+
+    /**
+     * hash, prevBlockHash, merkleRoot, timeStamp, nonce
+     */
+    static class BlockHeaderSerializer extends Serializer<BlockHeader> {
+
+        @Override
+        public void write(Kryo kryo, Output output, BlockHeader header) {
+            output.writeString(header.getHash());
+            output.writeString(header.getPrevBlockHash());
+            writeBytes(kryo, output, header.getMerkleRoot());
+            output.writeVarLong(header.getTimeStamp(), true);
+            output.writeVarLong(header.getNonce(), true);
+        }
+
+        @Override
+        public BlockHeader read(Kryo kryo, Input input, Class<BlockHeader> type) {
+            return new BlockHeader(input.readString(), input.readString(), readBytes(kryo, input),
+                    input.readVarLong(true), input.readVarLong(true));
+        }
+    }
+
+    /**
+     * Number of entries, then txId and the outputs before the block for each entry
+     */
+    static class BlockUndoSerializer extends Serializer<BlockUndo> {
+
+        @Override
+        public void write(Kryo kryo, Output output, BlockUndo undo) {
+            output.writeVarInt(undo.getSpentUTXOs().size(), true);
+            for (Map.Entry<String, TXOutput[]> entry : undo.getSpentUTXOs().entrySet()) {
+                output.writeString(entry.getKey());
+                kryo.writeObject(output, entry.getValue());
+            }
+        }
+
+        @Override
+        public BlockUndo read(Kryo kryo, Input input, Class<BlockUndo> type) {
+            int size = input.readVarInt(true);
+            Map<String, TXOutput[]> spentUTXOs = new HashMap<>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                spentUTXOs.put(input.readString(), kryo.readObject(input, TXOutput[].class));
+            }
+            return new BlockUndo(spentUTXOs);
+        }
+    }
+}
@@ -3,38 +3,145 @@ package org.ledger.blockchain.util;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoPool;
+
+import java.nio.ByteBuffer;
 
 /**
-*
-* @author Amit Chaudhary
-* @date 2018/03/08
-*/
+ * Blocks, block headers and transactions are written in the canonical binary format, see
+ * {@link BinaryCodec}. Other records are written with pooled Kryo instances that have the stored
+ * classes registered with hand-written serializers, see {@link KryoSerializers}, and start with
+ * {@link #FORMAT_MARKER}. Records of older versions, registered or written by a fresh
+ * unregistered Kryo with class names, are still read.
+ * <p>
+ * First bytes of the values of the blocks column family: {@link BinaryCodec#MAGIC} for canonical
+ * records, {@code 0xFF} for block file locations, see {@code BlockLocation}, {@link #FORMAT_MARKER}
+ * for registered records and below {@code 0x80} for unregistered ones.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
 public class SerializeUtils {
 
     /**
-     * 
+     * First byte of registered records. Unregistered records start with a Kryo class id below 0x80,
+     * canonical records with {@link BinaryCodec#MAGIC}.
+     */
+    public static final byte FORMAT_MARKER = (byte) 0xFD;
+
+    /**
+     * First byte of registered records written before {@link #FORMAT_MARKER}. It is the marker of
+     * block file locations too, which are told apart by their fixed length: registered blocks and
+     * headers are longer.
+     */
+    private static final byte OLD_FORMAT_MARKER = (byte) 0xFF;
+
+    /**
+     * Output buffers above this size are not kept for the next call
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+    private static final KryoPool KRYO_POOL = new KryoPool.Builder(() -> {
+        Kryo kryo = new Kryo();
+        KryoSerializers.register(kryo);
+        return kryo;
+    }).softReferences().build();
+
+    private static final KryoPool LEGACY_KRYO_POOL = new KryoPool.Builder(Kryo::new).softReferences().build();
+
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(() -> new Output(4096, -1));
+    private static final ThreadLocal<Input> INPUT = ThreadLocal.withInitial(Input::new);
+
+    /**
+     * Reads a record of either format
      *
      * @param bytes
      * @return
      */
     public static Object deserialize(byte[] bytes) {
-        Input input = new Input(bytes);
-        Object obj = new Kryo().readClassAndObject(input);
-        input.close();
-        return obj;
+        if (bytes.length > 0 && bytes[0] == BinaryCodec.MAGIC) {
+            return BinaryCodec.decode(ByteBuffer.wrap(bytes));
+        }
+        boolean registered = bytes.length > 0 && (bytes[0] == FORMAT_MARKER || bytes[0] == OLD_FORMAT_MARKER);
+        Input input = INPUT.get();
+        if (registered) {
+            input.setBuffer(bytes, 1, bytes.length - 1);
+        } else {
+            input.setBuffer(bytes);
+        }
+        KryoPool pool = registered ? KRYO_POOL : LEGACY_KRYO_POOL;
+        Kryo kryo = pool.borrow();
+        try {
+            return kryo.readClassAndObject(input);
+        } finally {
+            pool.release(kryo);
+        }
+    }
+
+    /**
+     * Canonical records are decoded in place. Kryo's ByteBufferInput writes into the buffer while
+     * decoding strings, so other records in read-only buffers such as file mappings are copied out
+     * first.
+     *
+     * @param buffer
+     * @return
+     */
+    public static Object deserialize(ByteBuffer buffer) {
+        if (BinaryCodec.isRecord(buffer)) {
+            return BinaryCodec.decode(buffer.duplicate());
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return deserialize(bytes);
     }
 
     /**
-     * 
+     * Writes a record in the canonical or the registered format
      *
      * @param object
      * @return
      */
     public static byte[] serialize(Object object) {
-        Output output = new Output(4096, -1);
-        new Kryo().writeClassAndObject(output, object);
+        if (BinaryCodec.isEncodable(object)) {
+            return BinaryCodec.encode(object);
+        }
+        Output output = OUTPUT.get();
+        output.clear();
+        output.writeByte(FORMAT_MARKER);
+        return write(KRYO_POOL, output, object);
+    }
+
+    /**
+     * Writes in the format of older versions, with class names and reflective field serializers.
+     * Transaction hashes, and so signatures, are computed over it, and legacy keys are encoded
+     * with it, so it must not change.
+     *
+     * @param object
+     * @return
+     */
+    public static byte[] serializeLegacy(Object object) {
+        Output output = OUTPUT.get();
+        output.clear();
+        return write(LEGACY_KRYO_POOL, output, object);
+    }
+
+    /**
+     * @param pool
+     * @param output
+     * @param object
+     * @return
+     */
+    private static byte[] write(KryoPool pool, Output output, Object object) {
+        Kryo kryo = pool.borrow();
+        try {
+            kryo.writeClassAndObject(output, object);
+        } finally {
+            pool.release(kryo);
+        }
         byte[] bytes = output.toBytes();
-        output.close();
+        if (output.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+            OUTPUT.remove();
+        }
         return bytes;
     }
 }
@@ -0,0 +1,115 @@
+package org.ledger.blockchain.block;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ledger.blockchain.store.RocksDBStorage;
+import org.ledger.blockchain.transaction.TXInput;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.Transaction;
+import org.ledger.blockchain.transaction.TransactionView;
+import org.ledger.blockchain.transaction.UTXODelta;
+import org.ledger.blockchain.util.BinaryCodec;
+import org.ledger.blockchain.util.ByteUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class BlockHeaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void headerFromViewMatchesHeaderFromBlock() {
+        Block block = newBlock(Transaction.SIGHASH_VERSION, Transaction.CANONICAL_VERSION);
+        BlockView view = new BlockView().wrap(ByteBuffer.wrap(BinaryCodec.encode(block)));
+
+        assertEquals(BlockHeader.newBlockHeader(block), BlockHeader.newBlockHeader(view));
+    }
+
+    @Test
+    public void transactionViewHashMatchesTransactionHash() {
+        Block block = newBlock(Transaction.SIGHASH_VERSION, Transaction.CANONICAL_VERSION);
+        BlockView view = new BlockView().wrap(ByteBuffer.wrap(BinaryCodec.encode(block)));
+        TransactionView transactionView = new TransactionView();
+        for (int i = 0; i < block.getTransactions().length; i++) {
+            assertArrayEquals("version=" + block.getTransactions()[i].getVersion(),
+                    block.getTransactions()[i].hash(), view.getTransaction(i, transactionView).hash());
+        }
+    }
+
+    @Test
+    public void legacyTransactionViewIsNotHashed() {
+        Block block = newBlock(Transaction.LEGACY_VERSION);
+        BlockView view = new BlockView().wrap(ByteBuffer.wrap(BinaryCodec.encode(block)));
+        try {
+            view.getTransaction(0, new TransactionView()).hash();
+            fail("a legacy transaction was hashed from its canonical copy");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void legacyHeaderKeepsSharedArrays() throws Exception {
+        Block block = newSharedArrayLegacyBlock(ByteUtils.ZERO_HASH);
+        BlockHeader expected = BlockHeader.newBlockHeader(block);
+        // the canonical copy loses the shared txId array, and with it the legacy hash
+        Block copy = (Block) BinaryCodec.decode(ByteBuffer.wrap(BinaryCodec.encode(block)));
+        assertFalse(Arrays.equals(expected.getMerkleRoot(), copy.hashTransaction()));
+
+        String keepBlocks = System.getProperty("prune.keepBlocks");
+        System.setProperty("prune.keepBlocks", "1");
+        try (RocksDBStorage storage = new RocksDBStorage(folder.newFolder())) {
+            storage.commitBlock(block, new UTXODelta(Maps.newHashMap(), Sets.newHashSet()));
+            assertEquals(expected, storage.getBlockHeader(block.getHash()));
+
+            // the next block prunes the first one down to its header
+            storage.commitBlock(newSharedArrayLegacyBlock(block.getHash()), new UTXODelta(Maps.newHashMap(), Sets.newHashSet()));
+            assertEquals(expected, storage.getBlockHeader(block.getHash()));
+        } finally {
+            if (keepBlocks == null) {
+                System.clearProperty("prune.keepBlocks");
+            } else {
+                System.setProperty("prune.keepBlocks", keepBlocks);
+            }
+        }
+    }
+
+    private static Block newBlock(int... versions) {
+        Transaction[] transactions = new Transaction[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            TXInput input = new TXInput(DigestUtils.sha256("prev" + i), i, new byte[]{1, 2, (byte) i}, new byte[]{4, 5});
+            TXOutput[] outputs = {new TXOutput(10 + i, DigestUtils.sha256("to" + i)), new TXOutput(-1, null)};
+            transactions[i] = new Transaction(DigestUtils.sha256("tx" + i), new TXInput[]{input}, outputs, 1520000000000L + i, versions[i]);
+        }
+        return new Block(DigestUtils.sha256Hex("block"), DigestUtils.sha256Hex("prev"), transactions, 1520000000L, 42);
+    }
+
+    /**
+     * @param prevBlockHash
+     * @return a block of a legacy transaction whose inputs spend two outputs of one transaction
+     * through the same txId array, as wallets built them
+     */
+    private static Block newSharedArrayLegacyBlock(String prevBlockHash) {
+        byte[] prevTxId = DigestUtils.sha256("shared" + prevBlockHash);
+        TXInput[] inputs = {new TXInput(prevTxId, 0, new byte[]{1}, new byte[]{2}), new TXInput(prevTxId, 1, new byte[]{3}, new byte[]{2})};
+        Transaction transaction = new Transaction(null, inputs, new TXOutput[]{new TXOutput(5, DigestUtils.sha256("to"))},
+                1520000000000L, Transaction.LEGACY_VERSION);
+        transaction.setTxId(transaction.hash());
+        return new Block(DigestUtils.sha256Hex("block" + prevBlockHash), prevBlockHash, new Transaction[]{transaction}, 1520000000L, 42);
+    }
+}
@@ -0,0 +1,67 @@
+package org.ledger.blockchain.block;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ledger.blockchain.store.RocksDBStorage;
+import org.ledger.blockchain.transaction.TXInput;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.Transaction;
+import org.ledger.blockchain.transaction.UTXODelta;
+import org.ledger.blockchain.util.ByteUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class BlockchainIteratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void iterationStopsAtPrunedBlocks() throws Exception {
+        String keepBlocks = System.getProperty("prune.keepBlocks");
+        System.setProperty("prune.keepBlocks", "2");
+        try (RocksDBStorage storage = new RocksDBStorage(folder.newFolder())) {
+            List<String> blockHashes = new ArrayList<>();
+            String prevBlockHash = ByteUtils.ZERO_HASH;
+            for (int height = 0; height < 4; height++) {
+                Block block = newBlock(prevBlockHash, height);
+                storage.commitBlock(block, new UTXODelta(Maps.newHashMap(), Sets.newHashSet()));
+                blockHashes.add(0, block.getHash());
+                prevBlockHash = block.getHash();
+            }
+            assertEquals(2, storage.getPruneHeight());
+
+            List<String> iterated = new ArrayList<>();
+            for (Blockchain.BlockchainIterator iterator = Blockchain.initBlockchainFromDB(storage).getBlockchainIterator();
+                 iterator.hashNext(); ) {
+                iterated.add(iterator.nextView().getHash());
+            }
+            assertEquals(blockHashes.subList(0, 2), iterated);
+        } finally {
+            if (keepBlocks == null) {
+                System.clearProperty("prune.keepBlocks");
+            } else {
+                System.setProperty("prune.keepBlocks", keepBlocks);
+            }
+        }
+    }
+
+    private static Block newBlock(String prevBlockHash, int height) {
+        TXInput input = new TXInput(new byte[]{}, -1, null, ("height " + height).getBytes());
+        Transaction coinbase = new Transaction(null, new TXInput[]{input},
+                new TXOutput[]{new TXOutput(10, DigestUtils.sha256("owner"))}, 1520000000000L + height, Transaction.SIGHASH_VERSION);
+        coinbase.setTxId(coinbase.hash());
+        return new Block(DigestUtils.sha256Hex("block" + height), prevBlockHash, new Transaction[]{coinbase}, 1520000000L + height, 42);
+    }
+}
@@ -0,0 +1,101 @@
+package org.ledger.blockchain.pow;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.transaction.Transaction;
+import org.ledger.blockchain.util.ByteUtils;
+
+import java.math.BigInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class ProofOfWorkTest {
+
+    private static final long[] EDGE_NONCES = {Long.MAX_VALUE, Long.MIN_VALUE, -1, 255, 256, 1L << 32};
+
+    @Test
+    public void hasherMatchesPlainSha256() {
+        Block block = newBlock();
+        ProofOfWork pow = ProofOfWork.newProofOfWork(block);
+        ProofOfWork.NonceHasher hasher = pow.newNonceHasher();
+        for (long nonce = 0; nonce < 2000; nonce++) {
+            assertHash(block, pow, hasher, nonce);
+        }
+        for (long nonce : EDGE_NONCES) {
+            assertHash(block, pow, hasher, nonce);
+        }
+    }
+
+    @Test
+    public void targetComparisonMatchesBigInteger() {
+        Block block = newBlock();
+        // about half the hashes are below this target, so both outcomes are compared
+        ProofOfWork pow = new ProofOfWork(block, BigInteger.ONE.shiftLeft(255));
+        ProofOfWork.NonceHasher hasher = pow.newNonceHasher();
+        int below = 0;
+        for (long nonce = 0; nonce < 2000; nonce++) {
+            byte[] hash = hasher.hash(nonce);
+            boolean expected = new BigInteger(1, hash).compareTo(pow.getTarget()) < 0;
+            assertEquals("nonce=" + nonce, expected, hasher.isBelowTarget(hash));
+            below += expected ? 1 : 0;
+        }
+        assertTrue("below=" + below, below > 0 && below < 2000);
+    }
+
+    @Test
+    public void minedNonceValidates() {
+        Block block = newBlock();
+        ProofOfWork pow = ProofOfWork.newProofOfWork(block);
+        PowResult result = new ParallelMiner(2).mine(pow);
+        block.setNonce(result.getNonce());
+
+        assertEquals(DigestUtils.sha256Hex(prepareData(block, result.getNonce())), result.getHash());
+        assertTrue(pow.validate());
+    }
+
+    @Test
+    public void workerFailureIsTheCause() {
+        // no transactions, so the workers fail to prepare the header
+        Block block = new Block("", Hex.encodeHexString(DigestUtils.sha256("prev")), null, 1520000000L, 0);
+        try {
+            new ParallelMiner(2).mine(ProofOfWork.newProofOfWork(block));
+            fail("a failed search returned a nonce");
+        } catch (RuntimeException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof NullPointerException);
+        }
+    }
+
+    private static void assertHash(Block block, ProofOfWork pow, ProofOfWork.NonceHasher hasher, long nonce) {
+        byte[] expected = DigestUtils.sha256(prepareData(block, nonce));
+        byte[] hash = hasher.hash(nonce);
+        assertArrayEquals("nonce=" + nonce, expected, hash);
+        assertEquals("nonce=" + nonce, new BigInteger(1, expected).compareTo(pow.getTarget()) < 0, hasher.isBelowTarget(hash));
+    }
+
+    /**
+     * Header bytes hashed by the proof of work, built without the hasher
+     */
+    private static byte[] prepareData(Block block, long nonce) {
+        return ByteUtils.merge(
+                new BigInteger(block.getPrevBlockHash(), 16).toByteArray(),
+                block.hashTransaction(),
+                ByteUtils.toBytes(block.getTimeStamp()),
+                ByteUtils.toBytes(ProofOfWork.TARGET_BITS),
+                ByteUtils.toBytes(nonce)
+        );
+    }
+
+    private static Block newBlock() {
+        Transaction coinbase = Transaction.newCoinbaseTX("1JKFwaPrEecTtrjZhRSaZFRPpCVCuntPDd", "pow test");
+        return new Block("", Hex.encodeHexString(DigestUtils.sha256("prev")), new Transaction[]{coinbase}, 1520000000L, 0);
+    }
+}
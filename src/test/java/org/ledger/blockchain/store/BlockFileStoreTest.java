@@ -0,0 +1,61 @@
+package org.ledger.blockchain.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class BlockFileStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsRecordsAcrossChunks() throws Exception {
+        BlockFileStore store = new BlockFileStore(folder.newFolder(), 4096, 64);
+        List<byte[]> blocks = new ArrayList<>();
+        List<BlockLocation> locations = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            // smaller than a chunk, crossing chunk ends, and longer than a chunk
+            byte[] blockBytes = newBlockBytes(i, (i * 37) % 150 + 1);
+            blocks.add(blockBytes);
+            locations.add(store.append(blockBytes));
+            // reads of the growing file between appends
+            assertArrayEquals("i=" + i, blockBytes, toBytes(store.read(locations.get(i))));
+        }
+        for (int i = 0; i < blocks.size(); i++) {
+            assertArrayEquals("i=" + i, blocks.get(i), toBytes(store.read(locations.get(i))));
+        }
+        assertTrue(locations.get(locations.size() - 1).getFileNo() > 0);
+        store.close();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsFilesOverIntRange() throws Exception {
+        new BlockFileStore(folder.newFolder(), Integer.MAX_VALUE + 1L);
+    }
+
+    private static byte[] newBlockBytes(int seed, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (seed * 31 + i);
+        }
+        return bytes;
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
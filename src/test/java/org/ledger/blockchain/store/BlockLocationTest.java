@@ -0,0 +1,53 @@
+package org.ledger.blockchain.store;
+
+import org.junit.Test;
+import org.ledger.blockchain.util.BinaryCodec;
+import org.ledger.blockchain.util.SerializeUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class BlockLocationTest {
+
+    @Test
+    public void markersAreDistinct() {
+        assertNotEquals(BlockLocation.MARKER, SerializeUtils.FORMAT_MARKER);
+        assertNotEquals(BlockLocation.MARKER, BinaryCodec.MAGIC);
+        assertNotEquals(SerializeUtils.FORMAT_MARKER, BinaryCodec.MAGIC);
+    }
+
+    @Test
+    public void registeredRecordsAreNeverLocations() {
+        int encodedLength = new BlockLocation(1, 2, 3).encode().length;
+        boolean sameLengthSeen = false;
+        for (int size = 0; size < 64; size++) {
+            byte[] record = SerializeUtils.serialize(new byte[size]);
+            sameLengthSeen |= record.length == encodedLength;
+            assertFalse("size=" + size, BlockLocation.isLocation(record));
+        }
+        assertTrue(sameLengthSeen);
+    }
+
+    @Test
+    public void locationRoundTrip() {
+        BlockLocation location = new BlockLocation(7, 1L << 40, 123456);
+        byte[] bytes = location.encode();
+        assertTrue(BlockLocation.isLocation(bytes));
+        assertEquals(location, BlockLocation.decode(bytes));
+    }
+
+    @Test
+    public void oldRegisteredRecordsAreRead() {
+        byte[] value = {1, 2, 3};
+        byte[] record = SerializeUtils.serialize(value);
+        record[0] = (byte) 0xFF;
+        assertArrayEquals(value, (byte[]) SerializeUtils.deserialize(record));
+    }
+}
@@ -0,0 +1,101 @@
+package org.ledger.blockchain.store;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.Transaction;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class DisconnectBlockTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rocksDBRestoresSpentOutputs() throws Exception {
+        try (StorageEngine storage = new RocksDBStorage(folder.newFolder())) {
+            assertRestoresSpentOutputs(storage);
+        }
+    }
+
+    @Test
+    public void memoryRestoresSpentOutputs() {
+        try (StorageEngine storage = new MemoryStorage()) {
+            assertRestoresSpentOutputs(storage);
+        }
+    }
+
+    @Test
+    public void rocksDBRestoresAfterReopen() throws Exception {
+        File dir = folder.newFolder();
+        Block coinbaseBlock;
+        Block spendBlock;
+        try (StorageEngine storage = new RocksDBStorage(dir)) {
+            coinbaseBlock = TestChains.commitCoinbaseBlock(storage);
+            spendBlock = TestChains.commitBlock(storage, TestChains.newSpend(coinbaseBlock.getTransactions()[0], 0));
+        }
+        try (StorageEngine storage = new RocksDBStorage(dir)) {
+            storage.disconnectBlock(spendBlock);
+            assertEquals(coinbaseBlock.getHash(), storage.getLastBlockHash());
+            assertNotNull(storage.getUTXOs(Hex.encodeHexString(coinbaseBlock.getTransactions()[0].getTxId())));
+        }
+    }
+
+    @Test
+    public void onlyTheLastBlockIsDisconnected() throws Exception {
+        try (StorageEngine storage = new RocksDBStorage(folder.newFolder())) {
+            TestChains.commitCoinbaseBlock(storage);
+            Block second = TestChains.commitCoinbaseBlock(storage);
+            TestChains.commitCoinbaseBlock(storage);
+            try {
+                storage.disconnectBlock(second);
+                fail("a block below the tip was disconnected");
+            } catch (RuntimeException e) {
+                assertEquals(2, storage.getTipHeight());
+            }
+        }
+    }
+
+    private static void assertRestoresSpentOutputs(StorageEngine storage) {
+        Block coinbaseBlock = TestChains.commitCoinbaseBlock(storage);
+        Transaction coinbase = coinbaseBlock.getTransactions()[0];
+        String coinbaseTxId = Hex.encodeHexString(coinbase.getTxId());
+        Transaction spend = TestChains.newSpend(coinbase, 0);
+        Block spendBlock = TestChains.commitBlock(storage, spend, TestChains.newCoinbase(storage));
+
+        assertNull(storage.getUTXOs(coinbaseTxId));
+        assertEquals(1, storage.getAddressUTXOs(TestChains.PUB_KEY_HASH).size());
+        assertNotNull(storage.getTxLocation(spend.getTxId()));
+
+        storage.disconnectBlock(spendBlock);
+
+        assertEquals(0, storage.getTipHeight());
+        assertEquals(coinbaseBlock.getHash(), storage.getLastBlockHash());
+        assertNull(storage.getBlockHash(1));
+        TXOutput[] restored = storage.getUTXOs(coinbaseTxId);
+        assertEquals(10, restored[0].getValue());
+        assertNull(storage.getUTXOs(Hex.encodeHexString(spend.getTxId())));
+        assertNull(storage.getUTXOs(Hex.encodeHexString(spendBlock.getTransactions()[1].getTxId())));
+        assertEquals(1, storage.getAddressUTXOs(TestChains.PUB_KEY_HASH).size());
+        assertEquals(coinbaseTxId, storage.getAddressUTXOs(TestChains.PUB_KEY_HASH).get(0).getTxId());
+        assertNull(storage.getTxLocation(spend.getTxId()));
+
+        // the chain goes on from the restored tip
+        Block next = TestChains.commitBlock(storage, TestChains.newSpend(coinbase, 0));
+        assertEquals(coinbaseBlock.getHash(), next.getPrevBlockHash());
+        assertEquals(1, storage.getTipHeight());
+    }
+}
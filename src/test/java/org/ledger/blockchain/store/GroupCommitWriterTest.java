@@ -0,0 +1,164 @@
+package org.ledger.blockchain.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class GroupCommitWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Options options;
+    private RocksDB db;
+
+    @Before
+    public void setUp() throws Exception {
+        RocksDB.loadLibrary();
+        options = new Options().setCreateIfMissing(true);
+        db = RocksDB.open(options, folder.newFolder("db").getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+        options.close();
+    }
+
+    @Test
+    public void intervalSyncsOncePerInterval() throws Exception {
+        long intervalMillis = 100;
+        GroupCommitWriter writer = new GroupCommitWriter(db, GroupCommitWriter.SyncPolicy.INTERVAL, intervalMillis);
+        long elapsedMillis = writeConcurrently(writer, 4, 1000);
+        GroupCommitWriter.Stats stats = writer.getStats();
+        writer.close();
+
+        assertTrue("writes=" + stats.getWrites(), stats.getWrites() > 4);
+        // one sync per elapsed interval, plus the one a late wakeup may add
+        long maxSyncs = elapsedMillis / intervalMillis + 1;
+        assertTrue("syncs=" + stats.getSyncs() + ", maxSyncs=" + maxSyncs,
+                stats.getSyncs() >= 1 && stats.getSyncs() <= maxSyncs);
+    }
+
+    @Test
+    public void alwaysSyncsEveryWrite() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(db, GroupCommitWriter.SyncPolicy.ALWAYS, 0);
+        writeConcurrently(writer, 4, 300);
+        GroupCommitWriter.Stats stats = writer.getStats();
+        writer.close();
+
+        // writers return only once synced, so each group holds at most one write per writer
+        assertTrue("syncs=" + stats.getSyncs(), stats.getSyncs() * 4 >= stats.getWrites());
+    }
+
+    @Test
+    public void closeSyncsAppliedWrites() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(db, GroupCommitWriter.SyncPolicy.INTERVAL, 60_000);
+        writer.awaitDurable(writer.write(newBatch(1)));
+        writer.close();
+
+        assertEquals(1, writer.getStats().getSyncs());
+    }
+
+    @Test
+    public void closeWaitsForActiveWrites() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(db, GroupCommitWriter.SyncPolicy.NONE, 0);
+        AtomicLong keys = new AtomicLong();
+        AtomicLong written = new AtomicLong();
+        List<Thread> writers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                while (true) {
+                    try (WriteBatch batch = newBatch(keys.incrementAndGet())) {
+                        writer.write(batch);
+                        written.incrementAndGet();
+                    } catch (Throwable e) {
+                        if (!String.valueOf(e.getMessage()).contains("writer is closed")) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                        return;
+                    }
+                }
+            });
+            thread.start();
+            writers.add(thread);
+        }
+        Thread.sleep(200);
+        writer.close();
+        long writesAtClose = writer.getStats().getWrites();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+
+        assertTrue("errors=" + errors, errors.isEmpty());
+        // writes past the closed check were applied, and synced, before close returned
+        assertEquals(written.get(), writesAtClose);
+        assertEquals(written.get(), writer.getStats().getWrites());
+        assertEquals(1, writer.getStats().getSyncs());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsNonPositiveInterval() {
+        new GroupCommitWriter(db, GroupCommitWriter.SyncPolicy.INTERVAL, 0);
+    }
+
+    /**
+     * @return elapsed milliseconds
+     */
+    private long writeConcurrently(GroupCommitWriter writer, int threads, long durationMillis) throws Exception {
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        AtomicLong keys = new AtomicLong();
+        List<Thread> writers = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        try (WriteBatch batch = newBatch(keys.incrementAndGet())) {
+                            writer.awaitDurable(writer.write(batch));
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            writers.add(thread);
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        assertTrue("errors=" + errors, errors.isEmpty());
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static WriteBatch newBatch(long key) throws RocksDBException {
+        WriteBatch batch = new WriteBatch();
+        batch.put(("key" + key).getBytes(), new byte[64]);
+        return batch;
+    }
+}
@@ -0,0 +1,75 @@
+package org.ledger.blockchain.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ledger.blockchain.util.ByteUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class MigrationTest {
+
+    private static final byte[] KEPT_SIZE = bytes("keptsize");
+    private static final byte[] OLD_KEPT_SIZE = bytes("blockssize");
+    private static final byte[] MOVED_OLD_KEPT_SIZE = bytes("lockssize");
+    private static final byte[] MIGRATED = bytes("migrated");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keptBlocksSizeSurvivesReopen() throws Exception {
+        File dir = folder.newFolder();
+        String maxBlocksSize = System.getProperty("prune.maxBlocksSize");
+        System.setProperty("prune.maxBlocksSize", "1GB");
+        try {
+            try (StorageEngine storage = new RocksDBStorage(dir)) {
+                TestChains.commitCoinbaseBlock(storage);
+                TestChains.commitCoinbaseBlock(storage);
+            }
+            byte[] keptSize = TestChains.withDB(dir, (db, blocks) -> {
+                assertNotNull(db.get(MIGRATED));
+                assertNull(db.get(blocks, MOVED_OLD_KEPT_SIZE));
+                return db.get(KEPT_SIZE);
+            });
+            assertNotNull(keptSize);
+
+            // a store written before the rename, whose migration moved the old key on every open
+            TestChains.withDB(dir, (db, blocks) -> {
+                db.delete(MIGRATED);
+                db.delete(KEPT_SIZE);
+                db.put(OLD_KEPT_SIZE, ByteUtils.toBytes(1L));
+                db.put(blocks, MOVED_OLD_KEPT_SIZE, ByteUtils.toBytes(1L));
+                return null;
+            });
+            new RocksDBStorage(dir).close();
+            new RocksDBStorage(dir).close();
+            TestChains.withDB(dir, (db, blocks) -> {
+                assertNull(db.get(OLD_KEPT_SIZE));
+                assertNull(db.get(blocks, MOVED_OLD_KEPT_SIZE));
+                assertNotNull(db.get(MIGRATED));
+                assertArrayEquals(keptSize, db.get(KEPT_SIZE));
+                return null;
+            });
+        } finally {
+            if (maxBlocksSize == null) {
+                System.clearProperty("prune.maxBlocksSize");
+            } else {
+                System.setProperty("prune.maxBlocksSize", maxBlocksSize);
+            }
+        }
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+}
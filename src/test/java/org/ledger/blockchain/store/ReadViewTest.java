@@ -0,0 +1,90 @@
+package org.ledger.blockchain.store;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.transaction.Transaction;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class ReadViewTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rocksDBViewIgnoresLaterCommits() throws Exception {
+        try (StorageEngine storage = new RocksDBStorage(folder.newFolder())) {
+            assertViewIgnoresLaterCommits(storage);
+        }
+    }
+
+    @Test
+    public void memoryViewIgnoresLaterCommits() throws Exception {
+        try (StorageEngine storage = new MemoryStorage()) {
+            assertViewIgnoresLaterCommits(storage);
+        }
+    }
+
+    @Test
+    public void memoryViewSurvivesDisconnect() {
+        try (StorageEngine storage = new MemoryStorage()) {
+            Block coinbaseBlock = TestChains.commitCoinbaseBlock(storage);
+            Transaction coinbase = coinbaseBlock.getTransactions()[0];
+            Block spendBlock = TestChains.commitBlock(storage, TestChains.newSpend(coinbase, 0));
+            try (ReadView view = storage.openReadView()) {
+                storage.disconnectBlock(spendBlock);
+                TestChains.commitCoinbaseBlock(storage);
+
+                assertEquals(spendBlock.getHash(), view.getBlockHash(1));
+                assertEquals(spendBlock.getHash(), view.getBlock(spendBlock.getHash()).getHash());
+                assertNull(view.getUTXOs(Hex.encodeHexString(coinbase.getTxId())));
+                assertEquals(0, view.getAddressUTXOs(TestChains.PUB_KEY_HASH).size());
+            }
+            assertNotNull(storage.getUTXOs(Hex.encodeHexString(coinbase.getTxId())));
+        }
+    }
+
+    /**
+     * Commits from this thread and from another one while the view is open
+     */
+    private static void assertViewIgnoresLaterCommits(StorageEngine storage) throws Exception {
+        Block coinbaseBlock = TestChains.commitCoinbaseBlock(storage);
+        Transaction coinbase = coinbaseBlock.getTransactions()[0];
+        String coinbaseTxId = Hex.encodeHexString(coinbase.getTxId());
+        ExecutorService committer = Executors.newSingleThreadExecutor();
+        try (ReadView view = storage.openReadView()) {
+            Block spendBlock = TestChains.commitBlock(storage, TestChains.newSpend(coinbase, 0));
+            committer.submit(() -> TestChains.commitCoinbaseBlock(storage)).get(10, TimeUnit.SECONDS);
+
+            assertEquals(2, storage.getTipHeight());
+            assertNull(storage.getUTXOs(coinbaseTxId));
+            assertEquals(0, view.getTipHeight());
+            assertEquals(coinbaseBlock.getHash(), view.getLastBlockHash());
+            assertNull(view.getBlockHash(1));
+            assertNotNull(view.getUTXOs(coinbaseTxId));
+            assertNull(view.getUTXOs(Hex.encodeHexString(spendBlock.getTransactions()[0].getTxId())));
+            assertEquals(1, view.getAddressUTXOs(TestChains.PUB_KEY_HASH).size());
+            assertEquals(coinbaseTxId, view.getAddressUTXOs(TestChains.PUB_KEY_HASH).get(0).getTxId());
+        } finally {
+            committer.shutdown();
+        }
+        try (ReadView view = storage.openReadView()) {
+            assertEquals(2, view.getTipHeight());
+            assertNull(view.getUTXOs(coinbaseTxId));
+            assertEquals(1, view.getAddressUTXOs(TestChains.PUB_KEY_HASH).size());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.ledger.blockchain.store;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.transaction.TXInput;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.Transaction;
+import org.ledger.blockchain.transaction.UTXODelta;
+import org.ledger.blockchain.util.ByteUtils;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.DBOptions;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Blocks with fixed hashes and unsigned transactions for storage tests. Stores do not check
+ * proofs of work or signatures, so none are computed.
+ *
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+class TestChains {
+
+    static final byte[] PUB_KEY_HASH = DigestUtils.sha256("owner");
+
+    private TestChains() {
+    }
+
+    /**
+     * Appends a block holding a coinbase transaction to the tip of the store
+     *
+     * @param storage
+     * @return the block
+     */
+    static Block commitCoinbaseBlock(StorageEngine storage) {
+        return commitBlock(storage, newCoinbase(storage));
+    }
+
+    /**
+     * @param storage
+     * @return a coinbase transaction for the next block of the store, paying 10 to {@link #PUB_KEY_HASH}
+     */
+    static Transaction newCoinbase(StorageEngine storage) {
+        long height = storage.getTipHeight() + 1;
+        Transaction coinbase = new Transaction(null, new TXInput[]{new TXInput(new byte[0], -1, null, ByteUtils.toBytes(height))},
+                new TXOutput[]{new TXOutput(10, PUB_KEY_HASH)}, height, Transaction.SIGHASH_VERSION);
+        coinbase.setTxId(coinbase.hash());
+        return coinbase;
+    }
+
+    /**
+     * Appends a block with the transactions to the tip of the store, spending the outputs their
+     * inputs refer to
+     *
+     * @param storage
+     * @param transactions
+     * @return the block
+     */
+    static Block commitBlock(StorageEngine storage, Transaction... transactions) {
+        String prevBlockHash = storage.getTipHeight() < 0 ? ByteUtils.ZERO_HASH : storage.getLastBlockHash();
+        Block block = new Block(DigestUtils.sha256Hex(prevBlockHash + storage.getTipHeight()), prevBlockHash,
+                transactions, 1520000000L + storage.getTipHeight(), 0);
+
+        Map<String, TXOutput[]> putUTXOs = Maps.newHashMap();
+        Set<String> deletedTxIds = Sets.newHashSet();
+        for (Transaction transaction : transactions) {
+            if (!transaction.isCoinbase()) {
+                for (TXInput input : transaction.getInputs()) {
+                    String txId = Hex.encodeHexString(input.getTxId());
+                    TXOutput[] outputs = putUTXOs.containsKey(txId) ? putUTXOs.get(txId) : storage.getUTXOs(txId).clone();
+                    outputs[input.getTxOutputIndex()] = null;
+                    putUTXOs.put(txId, outputs);
+                }
+            }
+            putUTXOs.put(Hex.encodeHexString(transaction.getTxId()), transaction.getOutputs().clone());
+        }
+        for (Map.Entry<String, TXOutput[]> entry : Maps.newHashMap(putUTXOs).entrySet()) {
+            boolean allSpent = true;
+            for (TXOutput output : entry.getValue()) {
+                allSpent &= output == null;
+            }
+            if (allSpent) {
+                putUTXOs.remove(entry.getKey());
+                deletedTxIds.add(entry.getKey());
+            }
+        }
+        storage.commitBlock(block, new UTXODelta(putUTXOs, deletedTxIds));
+        return block;
+    }
+
+    /**
+     * @param prevTx
+     * @param outputIndex
+     * @return an unsigned transaction spending the output to a new owner
+     */
+    static Transaction newSpend(Transaction prevTx, int outputIndex) {
+        TXOutput spent = prevTx.getOutputs()[outputIndex];
+        Transaction transaction = new Transaction(null, new TXInput[]{new TXInput(prevTx.getTxId(), outputIndex, null, null)},
+                new TXOutput[]{new TXOutput(spent.getValue(), DigestUtils.sha256("receiver"))},
+                prevTx.getCreateTime() + 1, Transaction.SIGHASH_VERSION);
+        transaction.setTxId(transaction.hash());
+        return transaction;
+    }
+
+    interface DBAction<T> {
+        T apply(RocksDB db, ColumnFamilyHandle blocks) throws Exception;
+    }
+
+    /**
+     * Opens the db of the store directly, with the handle of its blocks column family
+     */
+    static <T> T withDB(File dir, DBAction<T> action) throws Exception {
+        String path = new File(dir, "blockchain.db").getPath();
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+        int blocksIndex = -1;
+        try (Options options = new Options()) {
+            for (byte[] name : RocksDB.listColumnFamilies(options, path)) {
+                if (Arrays.equals(name, "blocks".getBytes(StandardCharsets.UTF_8))) {
+                    blocksIndex = descriptors.size();
+                }
+                descriptors.add(new ColumnFamilyDescriptor(name));
+            }
+        }
+        List<ColumnFamilyHandle> handles = new ArrayList<>();
+        try (DBOptions dbOptions = new DBOptions(); RocksDB db = RocksDB.open(dbOptions, path, descriptors, handles)) {
+            try {
+                return action.apply(db, handles.get(blocksIndex));
+            } finally {
+                handles.forEach(ColumnFamilyHandle::close);
+            }
+        }
+    }
+}
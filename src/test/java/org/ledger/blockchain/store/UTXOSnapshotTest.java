@@ -0,0 +1,167 @@
+package org.ledger.blockchain.store;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.transaction.TXOutput;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class UTXOSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsRoundTrip() throws Exception {
+        File file = folder.newFile();
+        byte[] tipHash = DigestUtils.sha256("tip");
+        try (UTXOSnapshot.Writer writer = new UTXOSnapshot.Writer(file, tipHash, 7)) {
+            writer.write(DigestUtils.sha256("a"), new byte[]{1, 2, 3});
+            writer.write(DigestUtils.sha256("b"), new byte[0]);
+        }
+        try (UTXOSnapshot.Reader reader = new UTXOSnapshot.Reader(file)) {
+            assertArrayEquals(tipHash, reader.getTipHash());
+            assertEquals(7, reader.getTipHeight());
+            assertTrue(reader.next());
+            assertArrayEquals(DigestUtils.sha256("a"), reader.getTxId());
+            assertArrayEquals(new byte[]{1, 2, 3}, reader.getUtxosBytes());
+            assertTrue(reader.next());
+            assertEquals(0, reader.getUtxosBytes().length);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void flippedByteFailsChecksum() throws Exception {
+        File file = writeOneRecord();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(file.length() - 45);
+            raf.write(raf.read() ^ 1);
+        }
+        assertCorrupt(file, "checksum mismatch");
+    }
+
+    @Test
+    public void hugeRecordLengthIsRejectedBeforeAllocating() throws Exception {
+        assertCorrupt(writeRecordLength(Integer.MAX_VALUE), "exceeds the file");
+    }
+
+    @Test
+    public void negativeRecordLengthIsRejected() throws Exception {
+        assertCorrupt(writeRecordLength(-1), "exceeds the file");
+    }
+
+    @Test
+    public void exportedSnapshotImportsIntoEmptyStore() throws Exception {
+        File snapshot = new File(folder.getRoot(), "utxo.snap");
+        Block tip;
+        String spentTxId;
+        try (RocksDBStorage source = new RocksDBStorage(folder.newFolder("source"))) {
+            Block first = TestChains.commitCoinbaseBlock(source);
+            TestChains.commitCoinbaseBlock(source);
+            spentTxId = Hex.encodeHexString(first.getTransactions()[0].getTxId());
+            tip = TestChains.commitBlock(source, TestChains.newSpend(first.getTransactions()[0], 0));
+            assertEquals(2, source.exportUTXOSnapshot(snapshot));
+        }
+        try (RocksDBStorage target = new RocksDBStorage(folder.newFolder("target"))) {
+            assertEquals(2, target.importUTXOSnapshot(snapshot));
+            assertEquals(tip.getHash(), target.getLastBlockHash());
+            assertEquals(2, target.getTipHeight());
+            assertEquals(3, target.getPruneHeight());
+            assertNull(target.getUTXOs(spentTxId));
+            TXOutput[] outputs = target.getUTXOs(Hex.encodeHexString(tip.getTransactions()[0].getTxId()));
+            assertEquals(10, outputs[0].getValue());
+            assertEquals(1, target.getAddressUTXOs(TestChains.PUB_KEY_HASH).size());
+        }
+    }
+
+    @Test
+    public void interruptedImportIsClearedOnOpen() throws Exception {
+        File snapshot = new File(folder.getRoot(), "utxo.snap");
+        Block tip;
+        try (RocksDBStorage source = new RocksDBStorage(folder.newFolder("source"))) {
+            TestChains.commitCoinbaseBlock(source);
+            tip = TestChains.commitCoinbaseBlock(source);
+            source.exportUTXOSnapshot(snapshot);
+        }
+        File dir = folder.newFolder("target");
+        try (RocksDBStorage target = new RocksDBStorage(dir)) {
+            target.importUTXOSnapshot(snapshot);
+        }
+        // a crash before the last batch: the chainstate and address index are written, the tip is not
+        TestChains.withDB(dir, (db, blocks) -> {
+            for (String key : new String[]{"l", "height", "prune", "keptsize", "addrindex", "txindex"}) {
+                db.delete(key.getBytes(StandardCharsets.UTF_8));
+            }
+            db.put("importing".getBytes(StandardCharsets.UTF_8), new byte[0]);
+            return null;
+        });
+        String tipTxId = Hex.encodeHexString(tip.getTransactions()[0].getTxId());
+        try (RocksDBStorage target = new RocksDBStorage(dir)) {
+            assertEquals(-1, target.getTipHeight());
+            assertNull(target.getUTXOs(tipTxId));
+            assertTrue(target.getAddressUTXOs(TestChains.PUB_KEY_HASH).isEmpty());
+
+            assertEquals(2, target.importUTXOSnapshot(snapshot));
+            assertEquals(tip.getHash(), target.getLastBlockHash());
+            assertEquals(2, target.getAddressUTXOs(TestChains.PUB_KEY_HASH).size());
+        }
+    }
+
+    private File writeOneRecord() throws IOException {
+        File file = folder.newFile();
+        try (UTXOSnapshot.Writer writer = new UTXOSnapshot.Writer(file, DigestUtils.sha256("tip"), 1)) {
+            writer.write(DigestUtils.sha256("a"), new byte[]{1, 2, 3});
+        }
+        return file;
+    }
+
+    /**
+     * @return a snapshot whose first record claims the length, followed by a trailer
+     */
+    private File writeRecordLength(int length) throws IOException {
+        File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x55545853);
+            out.writeByte(1);
+            out.write(new byte[32]);
+            out.writeLong(1);
+            out.writeByte(1);
+            out.write(new byte[32]);
+            out.writeInt(length);
+            out.write(new byte[64]);
+        }
+        return file;
+    }
+
+    private static void assertCorrupt(File file, String message) throws IOException {
+        try (UTXOSnapshot.Reader reader = new UTXOSnapshot.Reader(file)) {
+            while (reader.next()) {
+                // read to the trailer
+            }
+            fail("corrupt snapshot was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+}
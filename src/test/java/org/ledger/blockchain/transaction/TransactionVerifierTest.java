@@ -0,0 +1,90 @@
+package org.ledger.blockchain.transaction;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+import org.ledger.blockchain.util.BtcAddressUtils;
+import org.ledger.blockchain.util.EcdsaUtils;
+import org.ledger.blockchain.wallet.Wallet;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class TransactionVerifierTest {
+
+    private final TransactionVerifier verifier = new TransactionVerifier(2);
+
+    @Test
+    public void admittedTransactionHitsSignatureCache() throws Exception {
+        Wallet wallet = new Wallet();
+        Map<String, Transaction> prevTxMap = Maps.newHashMap();
+        Transaction tx = newSpend(wallet, prevTxMap, 3);
+        tx.sign(wallet.getPrivateKey(), prevTxMap);
+
+        CacheStats before = EcdsaUtils.getSignatureCacheStats();
+        assertTrue(verifier.verify(new Transaction[]{tx}, prevTxMap).isValid());
+        CacheStats admission = EcdsaUtils.getSignatureCacheStats().minus(before);
+        assertEquals(0, admission.hitCount());
+        assertEquals(3, admission.missCount());
+
+        before = EcdsaUtils.getSignatureCacheStats();
+        TransactionVerifier.Result result = verifier.verify(new Transaction[]{tx}, prevTxMap);
+        CacheStats stats = EcdsaUtils.getSignatureCacheStats().minus(before);
+
+        assertTrue(result.toString(), result.isValid());
+        assertEquals(3, stats.hitCount());
+        assertEquals(0, stats.missCount());
+    }
+
+    @Test
+    public void tamperedTransactionFails() throws Exception {
+        Wallet wallet = new Wallet();
+        Map<String, Transaction> prevTxMap = Maps.newHashMap();
+        Transaction tx = newSpend(wallet, prevTxMap, 2);
+        tx.sign(wallet.getPrivateKey(), prevTxMap);
+
+        tx.getOutputs()[0].setValue(1000);
+        TransactionVerifier.Result result = verifier.verify(new Transaction[]{tx}, prevTxMap);
+
+        assertFalse(result.isValid());
+        assertEquals(0, result.getTxIndex());
+    }
+
+    @Test
+    public void signingWithAnotherKeyFails() throws Exception {
+        Wallet wallet = new Wallet();
+        Map<String, Transaction> prevTxMap = Maps.newHashMap();
+        Transaction tx = newSpend(wallet, prevTxMap, 1);
+        tx.sign(new Wallet().getPrivateKey(), prevTxMap);
+
+        assertFalse(verifier.verify(new Transaction[]{tx}, prevTxMap).isValid());
+    }
+
+    /**
+     * @return a transaction spending one output of each of {@code inputs} previous transactions
+     */
+    private static Transaction newSpend(Wallet wallet, Map<String, Transaction> prevTxMap, int inputs) {
+        byte[] pubKeyHash = BtcAddressUtils.ripeMD160Hash(wallet.getPublicKey());
+        TXInput[] txInputs = new TXInput[inputs];
+        for (int i = 0; i < inputs; i++) {
+            byte[] prevTxId = DigestUtils.sha256("prev" + i + System.nanoTime());
+            Transaction prevTx = new Transaction(prevTxId, new TXInput[0],
+                    new TXOutput[]{new TXOutput(10, pubKeyHash)}, System.currentTimeMillis(), Transaction.SIGHASH_VERSION);
+            prevTxMap.put(Hex.encodeHexString(prevTxId), prevTx);
+            txInputs[i] = new TXInput(prevTxId, 0, null, wallet.getPublicKey());
+        }
+        Transaction tx = new Transaction(null, txInputs, new TXOutput[]{new TXOutput(10 * inputs, pubKeyHash)},
+                System.currentTimeMillis(), Transaction.SIGHASH_VERSION);
+        tx.setTxId(tx.hash());
+        return tx;
+    }
+}
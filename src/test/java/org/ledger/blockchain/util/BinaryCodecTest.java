@@ -0,0 +1,119 @@
+package org.ledger.blockchain.util;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.ArrayUtils;
+import org.junit.Test;
+import org.ledger.blockchain.block.Block;
+import org.ledger.blockchain.block.BlockHeader;
+import org.ledger.blockchain.transaction.TXInput;
+import org.ledger.blockchain.transaction.TXOutput;
+import org.ledger.blockchain.transaction.Transaction;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Amit Chaudhary
+ * @date 2018/03/08
+ */
+public class BinaryCodecTest {
+
+    @Test
+    public void blockRoundTrip() {
+        Block block = newBlock(Transaction.SIGHASH_VERSION);
+        byte[] bytes = SerializeUtils.serialize(block);
+
+        assertEquals(BinaryCodec.MAGIC, bytes[0]);
+        assertEquals(block, SerializeUtils.deserialize(bytes));
+        assertEquals(block, SerializeUtils.deserialize(ByteBuffer.wrap(bytes).asReadOnlyBuffer()));
+    }
+
+    @Test
+    public void transactionRoundTripKeepsNullsAndExtremes() {
+        TXInput input = new TXInput(new byte[0], -1, null, null);
+        TXOutput[] outputs = {new TXOutput(Integer.MIN_VALUE, null), new TXOutput(Integer.MAX_VALUE, new byte[0])};
+        Transaction transaction = new Transaction(null, new TXInput[]{input}, outputs, Long.MAX_VALUE, 1);
+
+        assertEquals(transaction, SerializeUtils.deserialize(SerializeUtils.serialize(transaction)));
+    }
+
+    @Test
+    public void blockHeaderRoundTrip() {
+        BlockHeader header = BlockHeader.newBlockHeader(newBlock(Transaction.SIGHASH_VERSION));
+        byte[] bytes = SerializeUtils.serialize(header);
+
+        assertEquals(BinaryCodec.TYPE_BLOCK_HEADER, bytes[2]);
+        assertEquals(header, SerializeUtils.deserialize(bytes));
+    }
+
+    @Test
+    public void canonicalHashIsTheDigestOfTheEncoding() {
+        Transaction transaction = newBlock(Transaction.SIGHASH_VERSION).getTransactions()[0];
+        Transaction withoutTxId = new Transaction(ArrayUtils.EMPTY_BYTE_ARRAY, transaction.getInputs(),
+                transaction.getOutputs(), transaction.getCreateTime(), transaction.getVersion());
+        byte[] record = BinaryCodec.encode(withoutTxId);
+
+        assertArrayEquals(DigestUtils.sha256(Arrays.copyOfRange(record, 3, record.length)), transaction.hash());
+    }
+
+    @Test
+    public void legacyBlocksFallBackToKryo() {
+        Block block = newBlock(Transaction.LEGACY_VERSION);
+        assertFalse(BinaryCodec.isEncodable(block));
+
+        byte[] registered = SerializeUtils.serialize(block);
+        assertEquals(SerializeUtils.FORMAT_MARKER, registered[0]);
+        assertEquals(block, SerializeUtils.deserialize(registered));
+
+        byte[] unregistered = SerializeUtils.serializeLegacy(block);
+        assertNotEquals(BinaryCodec.MAGIC, unregistered[0]);
+        assertEquals(block, SerializeUtils.deserialize(unregistered));
+    }
+
+    @Test
+    public void legacyTransactionHashIsStable() {
+        Transaction transaction = newBlock(Transaction.LEGACY_VERSION).getTransactions()[0];
+        Transaction withoutTxId = new Transaction(ArrayUtils.EMPTY_BYTE_ARRAY, transaction.getInputs(),
+                transaction.getOutputs(), transaction.getCreateTime(), transaction.getVersion());
+
+        assertArrayEquals(DigestUtils.sha256(SerializeUtils.serializeLegacy(withoutTxId)), transaction.hash());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blocksMixingVersionsAreRejected() {
+        SerializeUtils.serialize(newBlock(Transaction.LEGACY_VERSION, Transaction.SIGHASH_VERSION));
+    }
+
+    @Test
+    public void truncatedRecordsAreRejected() {
+        byte[] bytes = SerializeUtils.serialize(newBlock(Transaction.SIGHASH_VERSION));
+        for (int length : new int[]{3, 40, bytes.length / 2, bytes.length - 1}) {
+            try {
+                BinaryCodec.decode(ByteBuffer.wrap(bytes, 0, length));
+                fail("truncated record was decoded, length=" + length);
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Fail to decode record"));
+            }
+        }
+    }
+
+    private static Block newBlock(int... versions) {
+        Transaction[] transactions = new Transaction[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            TXInput[] inputs = {
+                    new TXInput(DigestUtils.sha256("prev" + i), i, new byte[]{1, 2, 3}, new byte[]{4, 5}),
+                    new TXInput(DigestUtils.sha256("prev"), 300, null, new byte[65])
+            };
+            TXOutput[] outputs = {new TXOutput(10 + i, DigestUtils.sha256("to" + i)), new TXOutput(-5, new byte[20])};
+            transactions[i] = new Transaction(DigestUtils.sha256("tx" + i), inputs, outputs, 1520000000000L + i, versions[i]);
+        }
+        return new Block(DigestUtils.sha256Hex("block"), ByteUtils.ZERO_HASH, transactions, 1520000000L, 1L << 40);
+    }
+}